@@ -0,0 +1,72 @@
+package com.noaoh.ezJSON;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Times get(name) on objects of several widths, and get(int) and getDouble(int)
+// on lists of the same sizes. Sizes are powers of two so the index can wrap cheaply.
+// The smallest object is scanned, and the others use the hash index, so the time
+// per get(name) should stay about the same from 16 fields up.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessBenchmark {
+    @Param({"4", "16", "256", "1024", "65536"})
+    public int size;
+
+    Json object;
+    String[] names;
+    Json list;
+    Json numbers;
+    int next;
+
+    @Setup
+    public void setup() {
+        object = Json.newObject();
+        names = new String[size];
+        list = Json.newList();
+        numbers = Json.newList();
+        for (int i = 0; i < size; i++) {
+            names[i] = "id" + i;
+            object.add(names[i], (long)i);
+            list.add("item" + i);
+            numbers.add(i * 0.5);
+        }
+        // Parse it back, so the nodes are laid out as a parsed document would be
+        object = Json.parse(object.toString());
+    }
+
+    int nextIndex() {
+        next = (next + 7919) & (size - 1);
+        return next;
+    }
+
+    @Benchmark
+    public Json getName() {
+        return object.get(names[nextIndex()]);
+    }
+
+    @Benchmark
+    public Json getIndex() {
+        return list.get(nextIndex());
+    }
+
+    @Benchmark
+    public double getDouble() {
+        return numbers.getDouble(nextIndex());
+    }
+}
@@ -0,0 +1,102 @@
+package com.noaoh.ezJSON;
+
+import java.util.Random;
+
+// Generates the documents that the benchmarks run over. Each kind stands for a
+// common shape of payload. A fixed seed keeps them the same from run to run.
+public class Documents {
+    static final String[] LEVELS = {"DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR"};
+    static final String[] WORDS = {"request", "user", "cache", "timeout", "retry", "shard", "commit",
+        "\u00e9t\u00e9", "\"quoted\"", "path\\to\\file", "line\nbreak", "\u65e5\u672c"};
+
+    public static String generate(String kind) {
+        Random r = new Random(42);
+        switch (kind) {
+            case "message": return message(r, 1).toString();
+            case "wide": return wide(r, 10000).toString();
+            case "deep": return deep(r, 200).toString();
+            case "numbers": return numbers(r, 100000).toString();
+            case "logs": return logs(r, 2000).toString();
+            default: throw new IllegalArgumentException("Unknown kind of document: " + kind);
+        }
+    }
+
+    // A small API message, a few hundred bytes long
+    static Json message(Random r, long id) {
+        Json ob = Json.newObject();
+        ob.add("id", id);
+        ob.add("user", "user" + r.nextInt(100000));
+        ob.add("email", "someone" + r.nextInt(1000) + "@example.com");
+        ob.add("active", r.nextBoolean());
+        ob.add("score", r.nextDouble());
+        Json tags = Json.newList();
+        for (int i = r.nextInt(4); i >= 0; i--)
+            tags.add(WORDS[r.nextInt(5)]);
+        ob.add("tags", tags);
+        Json meta = Json.newObject();
+        meta.add("requestId", Long.toHexString(r.nextLong()));
+        meta.add("timestamp", 1500000000000L + r.nextInt(1000000000));
+        meta.add("region", "us-east-1");
+        ob.add("meta", meta);
+        return ob;
+    }
+
+    // One object with many fields of mixed types
+    static Json wide(Random r, int fields) {
+        Json ob = Json.newObject();
+        for (int i = 0; i < fields; i++) {
+            String name = "field" + i;
+            switch (i % 4) {
+                case 0: ob.add(name, (long)r.nextInt()); break;
+                case 1: ob.add(name, r.nextDouble()); break;
+                case 2: ob.add(name, WORDS[r.nextInt(WORDS.length)]); break;
+                default: ob.add(name, r.nextBoolean()); break;
+            }
+        }
+        return ob;
+    }
+
+    // Objects and lists nested inside each other
+    static Json deep(Random r, int depth) {
+        Json node = message(r, depth);
+        for (int i = depth - 1; i >= 0; i--) {
+            Json parent = Json.newObject();
+            parent.add("level", (long)i);
+            if (i % 2 == 0) {
+                Json list = Json.newList();
+                list.add(node);
+                list.add(WORDS[r.nextInt(WORDS.length)]);
+                parent.add("children", list);
+            } else
+                parent.add("child", node);
+            node = parent;
+        }
+        return node;
+    }
+
+    // A long list of doubles, like a time series or an embedding vector
+    static Json numbers(Random r, int count) {
+        Json list = Json.newList();
+        for (int i = 0; i < count; i++)
+            list.add(r.nextGaussian());
+        return list;
+    }
+
+    // Log records with long messages that need escaping
+    static Json logs(Random r, int count) {
+        Json list = Json.newList();
+        for (int i = 0; i < count; i++) {
+            Json rec = Json.newObject();
+            rec.add("time", 1500000000000L + i * 17L);
+            rec.add("level", LEVELS[r.nextInt(LEVELS.length)]);
+            rec.add("logger", "com.example.service.Handler" + r.nextInt(20));
+            rec.add("thread", "worker-" + r.nextInt(64));
+            StringBuilder sb = new StringBuilder();
+            for (int j = 10 + r.nextInt(40); j > 0; j--)
+                sb.append(WORDS[r.nextInt(WORDS.length)]).append(' ');
+            rec.add("message", sb.toString());
+            list.add(rec);
+        }
+        return list;
+    }
+}
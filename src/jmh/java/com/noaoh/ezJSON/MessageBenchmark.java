@@ -0,0 +1,49 @@
+package com.noaoh.ezJSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parses one small message and writes it back, with a new parser and writer per
+// message and with the thread's reusable ones. The GC profiler that ./gradlew jmh
+// runs reports the bytes each way allocates per message as gc.alloc.rate.norm.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    byte[] bytes;
+    Json.SymbolTable symbols;
+
+    @Setup
+    public void setup() {
+        String text = "{\"id\":12345,\"user\":\"someone\",\"tags\":[\"a\",\"b\\nc\"],\"score\":0.75,"
+            + "\"meta\":{\"requestId\":\"7f3c-11ab\",\"retry\":false,\"parts\":[1,2,3]}}";
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        symbols = new Json.SymbolTable();
+    }
+
+    @Benchmark
+    public String fresh() {
+        return Json.parse(bytes, symbols).toString();
+    }
+
+    @Benchmark
+    public String reused() {
+        Json.ByteParser p = Json.ByteParser.local();
+        p.setSymbols(symbols);
+        return Json.Serializer.local().toString(p.reset(bytes).parse());
+    }
+}
@@ -0,0 +1,72 @@
+package com.noaoh.ezJSON;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parses each kind of document from a String, from bytes, from a file and from
+// the binary form
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"message", "wide", "deep", "numbers", "logs"})
+    public String kind;
+
+    String text;
+    byte[] bytes;
+    byte[] binary;
+    Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        text = Documents.generate(kind);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        binary = Json.parse(bytes).toBinary();
+        file = Files.createTempFile("bench", ".json");
+        Files.write(file, bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Json parseString() {
+        return Json.parse(text);
+    }
+
+    @Benchmark
+    public Json parseBytes() {
+        return Json.parse(bytes);
+    }
+
+    @Benchmark
+    public Json load() {
+        return Json.load(file.toString());
+    }
+
+    @Benchmark
+    public Json parseBinary() {
+        return Json.parseBinary(binary);
+    }
+}
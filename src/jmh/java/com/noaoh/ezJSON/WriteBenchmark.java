@@ -0,0 +1,85 @@
+package com.noaoh.ezJSON;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Writes each kind of document to a String, to a file, and, as text and in the
+// binary form, to a stream that discards its input, which measures the encoders
+// without any I/O
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({"message", "wide", "deep", "numbers", "logs"})
+    public String kind;
+
+    Json node;
+    Path file;
+    CountingStream sink = new CountingStream();
+
+    static class CountingStream extends OutputStream {
+        long count;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        node = Json.parse(Documents.generate(kind));
+        file = Files.createTempFile("bench", ".json");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public String toText() {
+        return node.toString();
+    }
+
+    @Benchmark
+    public void save() {
+        node.save(file.toString());
+    }
+
+    @Benchmark
+    public long writeStream() {
+        node.write(sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long writeBinary() {
+        Json.BinaryWriter w = new Json.BinaryWriter(sink);
+        w.write(node);
+        w.flush();
+        return sink.count;
+    }
+}
@@ -4,13 +4,43 @@
 // ----------------------------------------------------------------
 
 package com.noaoh.ezJSON;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.lang.StringBuilder;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.math.BigInteger;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
-import java.util.HashSet;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 
 // This class represents a node in a JSON DOM. Here is an example for how to use this class:
 //
@@ -53,9 +83,13 @@ import java.util.HashSet;
 //     }
 // }
 //
+// Alternatively, mark the class with @JsonSerializable, and JsonProcessor will generate
+// SubmarineJson.parse and SubmarineJson.toJson, which go straight between the text and
+// the fields without building a DOM.
+//
 public abstract class Json
 {
-    abstract void write(StringBuilder sb);
+    abstract void write(JsonWriter w);
 
     public static Json newObject()
     {
@@ -67,7 +101,7 @@ public abstract class Json
         return new JList();
     }
 
-    public static Json parseNode(StringParser p)
+    public static Json parseNode(Parser p)
     {
         p.skipWhitespace();
         if(p.remaining() == 0)
@@ -76,9 +110,9 @@ public abstract class Json
         if(c == '"')
             return new JString(JString.parseString(p));
         else if(c == '{')
-            return JObject.parseObject(p);
+            return p.lazy ? JLazy.skip(p) : JObject.parseObject(p);
         else if(c == '[')
-            return JList.parseList(p);
+            return p.lazy ? JLazy.skip(p) : JList.parseList(p);
         else if(c == 't')
         {
             p.expect("true");
@@ -97,7 +131,7 @@ public abstract class Json
         else if((c >= '0' && c <= '9') || c == '-')
             return JDouble.parseNumber(p);
         else
-            throw new RuntimeException("Unexpected token at " + p.str.substring(p.pos, Math.min(p.remaining(), 50)));
+            throw new RuntimeException("Unexpected token at " + p.snippet(50));
     }
 
     public int size()
@@ -132,7 +166,7 @@ public abstract class Json
 
     public long getLong(int index)
     {
-        return get(index).asLong();
+        return this.asList().longAt(index);
     }
 
     public double getDouble(String name)
@@ -142,7 +176,7 @@ public abstract class Json
 
     public double getDouble(int index)
     {
-        return get(index).asDouble();
+        return this.asList().doubleAt(index);
     }
 
     public String getString(String name)
@@ -205,6 +239,17 @@ public abstract class Json
         this.asList().add(new Json.JString(val));
     }
 
+    // Appends every value to this list. An empty list stores them packed.
+    public void add(long[] vals)
+    {
+        this.asList().addAll(vals);
+    }
+
+    public void add(double[] vals)
+    {
+        this.asList().addAll(vals);
+    }
+
     public boolean asBool()
     {
         return ((JBool)this).value;
@@ -228,259 +273,6109 @@ public abstract class Json
         return ((JString)this).value;
     }
 
-    public String toString()
+    // Returns a new version of this tree with the value at path set to val. If the last
+    // step of the path names a missing field, or the index just past the end of a list,
+    // the value is added there. This tree does not change. The new version shares every
+    // node off the path with it, and only the objects and lists on the path are copied,
+    // so an edit costs time and memory in proportion to them, not to the whole tree.
+    // The new version is frozen. A tree that is not frozen is copied first, so that it
+    // stays as it was and can still be changed; freeze it to share nodes instead. A
+    // value that is not frozen is copied the same way.
+    public Json with(String path, Json val)
     {
-        StringBuilder sb = new StringBuilder();
-        write(sb);
-        return sb.toString();
+        return edit(path, val == null ? new JNull() : val);
     }
 
-    private JObject asObject()
+    public Json with(String path, boolean val)
     {
-        return (JObject)this;
+        return edit(path, new JBool(val));
     }
 
-    private JList asList()
+    public Json with(String path, long val)
     {
-        return (JList)this;
+        return edit(path, new JLong(val));
     }
 
-    public void save(String filename)
+    public Json with(String path, double val)
+    {
+        return edit(path, new JDouble(val));
+    }
+
+    public Json with(String path, String val)
+    {
+        return edit(path, new JString(val));
+    }
+
+    // Returns a new version of this tree without the value at path, sharing nodes
+    // with this one like with does. If there is no such value, nothing is removed.
+    public Json without(String path)
+    {
+        return edit(path, null);
+    }
+
+    Json edit(String path, Json val)
+    {
+        JsonPath p = compilePath(path);
+        if(p.count == 0 && val == null)
+            throw new RuntimeException("The root cannot be removed");
+        return p.update(resolve().copy(), 0, val == null ? null : val.copy()).freeze();
+    }
+
+    // Returns a copy of this list's values. Each item must be a long.
+    public long[] asLongArray()
+    {
+        return this.asList().toLongArray();
+    }
+
+    // Returns a copy of this list's values. Each item must be a long or a double.
+    public double[] asDoubleArray()
+    {
+        return this.asList().toDoubleArray();
+    }
+
+    public String toString()
     {
+        Operation op = Operation.start("toString", null);
+        StringBuilder sb = new StringBuilder();
         try
         {
-            BufferedWriter out = new BufferedWriter(new FileWriter(filename));
-            out.write(toString());
-            out.close();
+            write(new BuilderWriter(sb));
         }
-        catch(Exception e)
+        catch(RuntimeException e)
         {
-            throw new RuntimeException(e);
+            throw Operation.fail(op, e);
         }
+        if(op != null)
+            op.finish(sb.length(), this, null);
+        return sb.toString();
     }
 
-    public static Json parse(String s)
+    // Writes this node as UTF-8 through a fixed size buffer, then flushes the stream
+    public void write(OutputStream out)
     {
-        StringParser p = new StringParser(s);
-        return Json.parseNode(p);
+        JsonWriter w = new Utf8Writer(out, null, JsonWriter.BUFFER_SIZE);
+        write(w);
+        w.flush();
     }
 
-    public static Json load(String filename)
+    public void write(WritableByteChannel channel)
+    {
+        JsonWriter w = new Utf8Writer(null, channel, JsonWriter.BUFFER_SIZE);
+        write(w);
+        w.flush();
+    }
+
+    public void write(Writer out)
+    {
+        JsonWriter w = new CharWriter(out, JsonWriter.BUFFER_SIZE);
+        write(w);
+        w.flush();
+    }
+
+    // Returns the node that holds this node's value. Only lazy, frozen and tape nodes
+    // differ from this.
+    Json resolve()
+    {
+        return this;
+    }
+
+    // Makes this tree immutable, so that any number of threads can read it without
+    // copying or locking. Lazy nodes are built, lists are trimmed to size, and the
+    // hash code and text of each object and list are cached once computed. Adding to
+    // the tree throws. The node returned holds the tree in a final field, so, like a
+    // String, it can be passed to other threads through a plain field.
+    public Json freeze()
+    {
+        return this;
+    }
+
+    // Makes the objects and lists in this tree read-only. Values have no state to change.
+    void seal()
+    {
+    }
+
+    // Returns a tree equal to this one that shares only frozen nodes with it, so that
+    // sealing it leaves this tree as it was. Values are shared, as they cannot change.
+    Json copy()
+    {
+        return this;
+    }
+
+    public boolean isFrozen()
+    {
+        return true;
+    }
+
+    // Returns the node that holds the value of o, or null if o is not a node
+    static Json node(Object o)
+    {
+        if(o instanceof JTape)
+            return ((JTape)o).comparable();
+        return o instanceof Json ? ((Json)o).resolve() : null;
+    }
+
+    private JObject asObject()
+    {
+        if(this instanceof JTape)
+            throw new RuntimeException("A tape is read-only");
+        return (JObject)resolve();
+    }
+
+    private JList asList()
+    {
+        if(this instanceof JTape)
+            throw new RuntimeException("A tape is read-only");
+        return (JList)resolve();
+    }
+
+    public void save(String filename)
     {
-        String contents;
+        Operation op = Operation.start("save", filename);
         try
         {
-            contents = new String(Files.readAllBytes(Paths.get(filename)));
+            try(OutputStream out = Files.newOutputStream(Paths.get(filename)))
+            {
+                write(out);
+            }
+            if(op != null)
+                op.size = Files.size(Paths.get(filename));
         }
         catch(Exception e)
         {
-            throw new RuntimeException(e);
+            throw Operation.fail(op, new RuntimeException(e));
         }
-        return parse(contents);
+        if(op != null)
+            op.finish(op.size, this, null);
     }
 
-    public static class StringParser
+    // Writes this node in the binary form that BinaryWriter describes
+    public void saveBinary(String filename)
     {
-        String str;
-        int pos;
-
-        StringParser(String s)
+        Operation op = Operation.start("saveBinary", filename);
+        long size;
+        try(OutputStream out = Files.newOutputStream(Paths.get(filename)))
         {
-            str = s;
-            pos = 0;
+            BinaryWriter w = new BinaryWriter(out);
+            w.write(this);
+            w.flush();
+            size = w.written;
         }
-
-        int remaining()
+        catch(IOException e)
         {
-            return str.length() - pos;
+            throw Operation.fail(op, new RuntimeException(e));
         }
-
-        char peek()
+        catch(RuntimeException e)
         {
-            return str.charAt(pos);
+            throw Operation.fail(op, e);
         }
+        if(op != null)
+            op.finish(size, this, null);
+    }
 
-        void advance(int n)
+    public byte[] toBinary()
+    {
+        Operation op = Operation.start("toBinary", null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
         {
-            pos += n;
+            BinaryWriter w = new BinaryWriter(out);
+            w.write(this);
+            w.flush();
         }
-
-        void retreat(int n)
+        catch(RuntimeException e)
         {
-            pos -= n;
+            throw Operation.fail(op, e);
         }
+        if(op != null)
+            op.finish(out.size(), this, null);
+        return out.toByteArray();
+    }
 
-        void skipWhitespace()
+    public static Json parseBinary(byte[] b)
+    {
+        Operation op = Operation.start("parseBinary", null);
+        Json node;
+        try
         {
-            while(pos < str.length() && str.charAt(pos) <= ' ')
-                pos++;
+            node = readBinary(b);
         }
-
-        void expect(String s)
+        catch(RuntimeException e)
         {
-            if(!str.substring(pos, Math.min(str.length(), pos + s.length())).equals(s))
-                throw new RuntimeException("Expected \"" + s + "\", Got \"" + str.substring(pos, Math.min(str.length(), pos + s.length())) + "\"");
-            pos += s.length();
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, b.length, node);
+    }
 
-        String until(char c)
+    static Json readBinary(byte[] b)
+    {
+        BinaryReader r = new BinaryReader(b);
+        Json node = r.read();
+        if(node == null)
+            throw new RuntimeException("Unexpected end of binary JSON");
+        if(r.pos < r.limit)
+            throw new RuntimeException("Unexpected data after binary JSON");
+        return node;
+    }
+
+    public static Json loadBinary(String filename)
+    {
+        Operation op = Operation.start("loadBinary", filename);
+        byte[] contents;
+        Json node;
+        try
         {
-            int i = pos;
-            while(i < str.length() && str.charAt(i) != c)
-                i++;
-            String s = str.substring(pos, i);
-            pos = i;
-            return s;
+            contents = Files.readAllBytes(Paths.get(filename));
+            node = readBinary(contents);
         }
-
-        String until(char a, char b)
+        catch(IOException e)
         {
-            int i = pos;
-            while(i < str.length() && str.charAt(i) != a && str.charAt(i) != b)
-                i++;
-            String s = str.substring(pos, i);
-            pos = i;
-            return s;
+            throw Operation.fail(op, new RuntimeException(e));
         }
-
-        String untilEscapeCharacter()
+        catch(RuntimeException e)
         {
-            HashSet<Character> escapeChars = new HashSet<Character>();
-            escapeChars.add('\"');
-            escapeChars.add('\\');
-            escapeChars.add('\b');
-            escapeChars.add('\f');
-            escapeChars.add('\n');
-            escapeChars.add('\r');
-            escapeChars.add('\t');
-            int i = pos;
-            while (i < str.length() && !escapeChars.contains(str.charAt(i)))
-                i++;
-            String s = str.substring(pos, i);
-            pos = i;
-            return s;
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, contents.length, node);
+    }
 
-        String untilWhitespace()
+    public static Json parse(String s)
+    {
+        return parse(s, null);
+    }
+
+    // Parses with a symbol table, so that repeated names and short
+    // string values share String instances. The table may be null.
+    public static Json parse(String s, SymbolTable symbols)
+    {
+        Operation op = Operation.start("parse", null);
+        Json node;
+        try
         {
-            int i = pos;
-            while(i < str.length() && str.charAt(i) > ' ')
-                i++;
-            String s = str.substring(pos, i);
-            pos = i;
-            return s;
+            StringParser p = new StringParser(s);
+            p.symbols = symbols;
+            node = Json.parseNode(p);
         }
-
-        String untilQuoteSensitive(char a, char b)
+        catch(RuntimeException e)
         {
-            if(peek() == '"')
-            {
-                advance(1);
-                String s = "\"" + until('"') + "\"";
-                advance(1);
-                until(a, b);
-                return s;
-            }
-            else
-                return until(a, b);
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, s.length(), node);
+    }
 
-        String whileReal()
+    public static Json parse(byte[] b)
+    {
+        return parse(ByteBuffer.wrap(b), null);
+    }
+
+    public static Json parse(byte[] b, SymbolTable symbols)
+    {
+        return parse(ByteBuffer.wrap(b), symbols);
+    }
+
+    public static Json parse(ByteBuffer b)
+    {
+        return parse(b, null);
+    }
+
+    public static Json parse(ByteBuffer b, SymbolTable symbols)
+    {
+        Operation op = Operation.start("parse", null);
+        int size = b.remaining();
+        Json node;
+        try
         {
-            int i = pos;
-            while(i < str.length())
-            {
-                char c = str.charAt(i);
-                if((c >= '0' && c <= '9') ||
-                        (c == '-' ||
-                        c == '+' ||
-                        c == '.' ||
-                        c == 'e' ||
-                        c == 'E' ||
-                        (int)c == 32 ||
-                        (int)c == 10))
-                    i++;
-                else if (c == ',' || c == ':' || c == ']' || c == '}')
-                    break;
-                else
-                    throw new RuntimeException("Invalid character " + c + " in number");
-            }
-            String s = str.substring(pos, i).trim();
-            pos = i;
-            return s;
+            node = parseBytes(b, symbols);
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, size, node);
     }
 
-    private static class NameVal
+    static Json parseBytes(ByteBuffer b, SymbolTable symbols)
     {
-        String name;
-        Json value;
+        ByteParser p = new ByteParser(b);
+        p.symbols = symbols;
+        return Json.parseNode(p);
+    }
 
-        NameVal(String nam, Json val)
+    // Parses in two stages. The first finds every structural character with bit
+    // parallel operations on 64 bytes at a time, and the second builds the DOM by
+    // jumping between them. It accepts exactly what parse accepts.
+    public static Json parseIndexed(byte[] b)
+    {
+        return parseIndexed(b, null);
+    }
+
+    public static Json parseIndexed(byte[] b, SymbolTable symbols)
+    {
+        Operation op = Operation.start("parseIndexed", null);
+        Json node;
+        try
         {
-            if(nam == null)
-                throw new IllegalArgumentException("The name cannot be null");
-            if(val == null)
-                val = new JNull();
-            name = nam;
-            value = val;
+            IndexedParser p = new IndexedParser(b, new StructuralIndex(b, b.length));
+            p.symbols = symbols;
+            node = p.parseValue();
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, b.length, node);
     }
 
-    private static class JObject extends Json
+    // Parses a document whose root is a list by parsing its elements in parallel on
+    // the common ForkJoinPool. Other documents, and small ones, are parsed as usual.
+    // The result, and the error for a bad document, are the same as from parse.
+    public static Json parseParallel(byte[] b)
     {
-        ArrayList<NameVal> fields;
+        return parseParallel(b, null, ParallelList.MIN_SIZE, ParallelList.BATCH_SIZE);
+    }
 
-        JObject()
+    public static Json parseParallel(byte[] b, SymbolTable symbols)
+    {
+        return parseParallel(b, symbols, ParallelList.MIN_SIZE, ParallelList.BATCH_SIZE);
+    }
+
+    static Json parseParallel(byte[] b, SymbolTable symbols, int minSize, int batchSize)
+    {
+        Operation op = Operation.start("parseParallel", null);
+        Json node;
+        try
         {
-            fields = new ArrayList<NameVal>();
+            node = parseParallelNode(b, symbols, minSize, batchSize);
         }
-
-        public void add(String name, Json val)
+        catch(RuntimeException e)
         {
-            fields.add(new NameVal(name, val));
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, b.length, node);
+    }
 
-        Json fieldIfExists(String name)
+    static Json parseParallelNode(byte[] b, SymbolTable symbols, int minSize, int batchSize)
+    {
+        int start = 0;
+        while(start < b.length && (b[start] & 0xff) <= ' ')
+            start++;
+        if(b.length >= minSize && start < b.length && b[start] == '[')
         {
-            for(NameVal nv : fields)
+            try
             {
-                if(nv.name.equals(name))
-                    return nv.value;
+                Json list = ParallelList.parse(b, start, symbols, batchSize);
+                if(list != null)
+                    return list;
+            }
+            catch(RuntimeException e)
+            {
+                // The sequential parser below reports it
             }
-            return null;
         }
+        return parseBytes(ByteBuffer.wrap(b), symbols);
+    }
 
-        Json field(String name)
+    // Checks the syntax of the whole document, but only builds nodes for the values
+    // that are used. Each object or list is built one level at a time, the first time
+    // one of its accessors is called. Until then it refers to its place in the input,
+    // so the input stays in memory as long as any part of the result is unbuilt. Any
+    // number of threads may read the result, though like any tree, not while one adds.
+    public static Json parseLazy(String s)
+    {
+        Operation op = Operation.start("parseLazy", null);
+        Json node;
+        try
         {
-            Json n = fieldIfExists(name);
-            if(n == null)
-                throw new RuntimeException("No field named \"" + name + "\" found.");
-            return n;
+            StringParser p = new StringParser(s);
+            p.lazy = true;
+            node = Json.parseNode(p);
         }
-
-        void write(StringBuilder sb)
+        catch(RuntimeException e)
         {
-            sb.append("{");
-            for(int i = 0; i < fields.size(); i++)
-            {
-                if(i > 0)
-                    sb.append(",");
-                NameVal nv = fields.get(i);
-                JString.write(sb, nv.name);
-                sb.append(":");
-                nv.value.write(sb);
-            }
-            sb.append("}");
+            throw Operation.fail(op, e);
         }
+        return Operation.done(op, s.length(), node);
+    }
+
+    public static Json parseLazy(byte[] b)
+    {
+        return parseLazy(ByteBuffer.wrap(b));
+    }
 
-        static JObject parseObject(StringParser p)
+    public static Json parseLazy(ByteBuffer b)
+    {
+        Operation op = Operation.start("parseLazy", null);
+        int size = b.remaining();
+        Json node;
+        try
         {
-            p.expect("{");
-            JObject newOb = new JObject();
-            boolean readyForField = true;
-            while(p.remaining() > 0)
-            {
+            ByteParser p = new ByteParser(b);
+            p.lazy = true;
+            node = Json.parseNode(p);
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        return Operation.done(op, size, node);
+    }
+
+    // Parses into an immutable tree, as freeze makes
+    public static Json parseFrozen(String s)
+    {
+        return parse(s).freeze();
+    }
+
+    public static Json parseFrozen(byte[] b)
+    {
+        return parse(b).freeze();
+    }
+
+    public static Json load(String filename)
+    {
+        return load(filename, null);
+    }
+
+    public static Json load(String filename, SymbolTable symbols)
+    {
+        Operation op = Operation.start("load", filename);
+        byte[] contents;
+        try
+        {
+            contents = Files.readAllBytes(Paths.get(filename));
+        }
+        catch(Exception e)
+        {
+            throw Operation.fail(op, new RuntimeException(e));
+        }
+        Json node;
+        try
+        {
+            node = parseBytes(ByteBuffer.wrap(contents), symbols);
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        return Operation.done(op, contents.length, node);
+    }
+
+    // Sends a report of each parse, load, toString and save, and of the other ways in
+    // and out listed by Operation.kind, to listener, or stops reporting if it is null.
+    // See Listener.
+    public static void setListener(Listener listener)
+    {
+        Operation.listener = listener;
+    }
+
+    // Parses onto a Tape, outside the heap. See Tape.
+    public static Tape parseTape(byte[] b)
+    {
+        Operation op = Operation.start("parseTape", null);
+        Tape t;
+        try
+        {
+            t = new Tape(reader(b), b.length);
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        if(op != null)
+            op.finish(b.length, t.root(), null);
+        return t;
+    }
+
+    // Parses a file onto a Tape, reading it through a memory mapping, so that neither
+    // the text nor the document is on the heap
+    public static Tape loadTape(Path path)
+    {
+        Operation op = Operation.start("loadTape", path.toString());
+        long size;
+        Tape t;
+        try
+        {
+            size = Files.size(path);
+            t = new Tape(reader(path), (int)Math.min(size, Integer.MAX_VALUE));
+        }
+        catch(IOException e)
+        {
+            throw Operation.fail(op, new RuntimeException(e));
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        if(op != null)
+            op.finish(size, t.root(), null);
+        return t;
+    }
+
+    // Parses a file through a read-only memory mapping, so the file contents are
+    // never copied onto the heap. Files larger than the mapping window are parsed
+    // through a sliding series of mappings.
+    public static Json loadMapped(Path path)
+    {
+        return loadMapped(path, MappedParser.WINDOW);
+    }
+
+    static Json loadMapped(Path path, int window)
+    {
+        Operation op = Operation.start("loadMapped", path.toString());
+        long size;
+        Json node;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            size = channel.size();
+            MappedParser p = new MappedParser(channel, window);
+            node = Json.parseNode(p);
+        }
+        catch(IOException e)
+        {
+            throw Operation.fail(op, new RuntimeException(e));
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        return Operation.done(op, size, node);
+    }
+
+    // Parses a file of newline delimited JSON values (JSON Lines), one value per line.
+    // The file is cut into chunks at line boundaries, and the chunks are parsed in
+    // parallel on the common ForkJoinPool. Blank lines are skipped.
+    public static List<Json> loadLines(Path path)
+    {
+        ArrayList<Json> values = new ArrayList<Json>();
+        loadLines(path, values::add);
+        return values;
+    }
+
+    // Passes each value to sink in file order, from the calling thread. Only a few
+    // chunks are held at a time, so memory use does not depend on the size of the file.
+    public static void loadLines(Path path, Consumer<Json> sink)
+    {
+        Operation op = Operation.start("loadLines", path.toString());
+        long size;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            size = parseLines(new FileLines(channel, LineSource.CHUNK_SIZE), sink);
+        }
+        catch(IOException e)
+        {
+            throw Operation.fail(op, new RuntimeException(e));
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        Operation.done(op, size, null);
+    }
+
+    public static List<Json> parseLines(InputStream in)
+    {
+        ArrayList<Json> values = new ArrayList<Json>();
+        parseLines(in, values::add);
+        return values;
+    }
+
+    public static void parseLines(InputStream in, Consumer<Json> sink)
+    {
+        Operation op = Operation.start("parseLines", null);
+        long size;
+        try
+        {
+            size = parseLines(new StreamLines(in, LineSource.CHUNK_SIZE), sink);
+        }
+        catch(RuntimeException e)
+        {
+            throw Operation.fail(op, e);
+        }
+        Operation.done(op, size, null);
+    }
+
+    // Returns the number of bytes parsed
+    static long parseLines(LineSource source, Consumer<Json> sink)
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int maxPending = pool.getParallelism() * 2 + 1;
+        ArrayDeque<ForkJoinTask<LineChunk>> pending = new ArrayDeque<ForkJoinTask<LineChunk>>();
+        long line = 0;
+        long size = 0;
+        try
+        {
+            ByteBuffer b;
+            while((b = source.next()) != null)
+            {
+                size += b.remaining();
+                LineChunk chunk = new LineChunk(b);
+                pending.add(pool.submit(chunk::parse, chunk));
+                if(pending.size() >= maxPending)
+                    line = pending.poll().join().deliver(line, sink);
+            }
+            while(!pending.isEmpty())
+                line = pending.poll().join().deliver(line, sink);
+            return size;
+        }
+        finally
+        {
+            for(ForkJoinTask<LineChunk> t : pending)
+                t.cancel(false);
+        }
+    }
+
+    // Compiles a path such as "meta.requestId", "items[*].price" or "$['a.b'][0]", which
+    // picks values out of a document without parsing the rest of it. See JsonPath.
+    public static JsonPath compilePath(String path)
+    {
+        return new JsonPath(path);
+    }
+
+    public static Reader reader(String s)
+    {
+        return new Reader(new StringParser(s), null);
+    }
+
+    public static Reader reader(byte[] b)
+    {
+        return new Reader(new ByteParser(ByteBuffer.wrap(b)), null);
+    }
+
+    // The reader takes ownership of the stream, and closing the reader closes it
+    public static Reader reader(InputStream in)
+    {
+        return new Reader(new StreamParser(in, StreamParser.BUFFER_SIZE), in);
+    }
+
+    public static Reader reader(Path path)
+    {
+        try
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try
+            {
+                return new Reader(new MappedParser(channel, MappedParser.WINDOW), channel);
+            }
+            catch(IOException e)
+            {
+                channel.close();
+                throw e;
+            }
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The writer takes ownership of the stream, and closing the writer closes it.
+    // A listener hears of the writer when it is closed.
+    public static JsonWriter writer(OutputStream out)
+    {
+        JsonWriter w = new Utf8Writer(out, null, JsonWriter.BUFFER_SIZE);
+        w.op = Operation.start("writer", null);
+        return w;
+    }
+
+    public static JsonWriter writer(WritableByteChannel channel)
+    {
+        JsonWriter w = new Utf8Writer(null, channel, JsonWriter.BUFFER_SIZE);
+        w.op = Operation.start("writer", null);
+        return w;
+    }
+
+    public static JsonWriter writer(Writer out)
+    {
+        JsonWriter w = new CharWriter(out, JsonWriter.BUFFER_SIZE);
+        w.op = Operation.start("writer", null);
+        return w;
+    }
+
+    // The tokenizing primitives shared by all of the node parsers. Each subclass
+    // supplies them for a different kind of input.
+    public abstract static class Parser
+    {
+        // If not null, string tokens are looked up here before a new String is made
+        SymbolTable symbols;
+
+        // Where string tokens with escapes are decoded. It is kept between tokens.
+        char[] scratch = new char[64];
+
+        // If set, objects and lists below the current one are skipped and left as lazy nodes
+        boolean lazy;
+
+        // If set, the input is known to be valid, so lazy nodes are skipped without checking it
+        boolean checked;
+
+        // A scratch buffer bigger than this is dropped by reset, so that one huge
+        // string does not pin its buffer for as long as the parser is reused
+        static final int MAX_KEPT = 1 << 16;
+
+        // Parsers can be reused for any number of documents, which saves allocating a
+        // parser and its buffers for each one. reset clears what is left from the last
+        // document but keeps the symbol table; the reset methods of the subclasses also
+        // set the next input. A reused parser can't make lazy nodes, since they keep it.
+        public void reset()
+        {
+            lazy = false;
+            checked = false;
+            if(scratch.length > MAX_KEPT)
+                scratch = new char[64];
+        }
+
+        public void setSymbols(SymbolTable table)
+        {
+            symbols = table;
+        }
+
+        // Set for the parsers that local returns. They let go of their input once parse
+        // returns, so that a thread's parser does not keep its last document alive.
+        boolean release;
+
+        // Parses the value at the current position
+        public Json parse()
+        {
+            try
+            {
+                return Json.parseNode(this);
+            }
+            finally
+            {
+                if(release)
+                    release();
+            }
+        }
+
+        // Drops the reference to the input, leaving the parser empty until the next reset
+        abstract void release();
+
+        abstract int remaining();
+        abstract char peek();
+        abstract void advance(int n);
+        abstract void retreat(int n);
+        abstract void skipWhitespace();
+        abstract void expect(String s);
+
+        // Reads the rest of a string token, starting just past the opening quote
+        abstract String readString();
+
+        abstract int position();
+
+        // Returns a new parser over the same input, starting at pos
+        abstract Parser reopen(int pos);
+
+        // Returns up to n characters from the current position, for error messages
+        abstract String snippet(int n);
+
+        // Makes room for at least n chars in scratch, keeping the first len of them
+        char[] reserve(int len, int n)
+        {
+            if(n > scratch.length)
+            {
+                char[] bigger = new char[Math.max(n, scratch.length * 2)];
+                System.arraycopy(scratch, 0, bigger, 0, len);
+                scratch = bigger;
+            }
+            return scratch;
+        }
+
+        String finish(int len)
+        {
+            if(symbols != null)
+                return symbols.get(scratch, 0, len);
+            return new String(scratch, 0, len);
+        }
+
+        static int hexValue(char c)
+        {
+            if(c >= '0' && c <= '9')
+                return c - '0';
+            else if(c >= 'a' && c <= 'f')
+                return c - 'a' + 10;
+            else if(c >= 'A' && c <= 'F')
+                return c - 'A' + 10;
+            else
+                return -1;
+        }
+
+        // Decodes the escape sequence just past a '\\' onto scratch at len, and returns
+        // the new length. A surrogate pair is written as two \\u escapes, and each one
+        // decodes to one of its two chars.
+        int unescape(int len)
+        {
+            if(remaining() == 0)
+                throw new RuntimeException("No closing \"");
+            char c = peek();
+            advance(1);
+            switch(c)
+            {
+                case '"': break;
+                case '\\': break;
+                case '/': break;
+                case 'b': c = '\b'; break;
+                case 'f': c = '\f'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'u':
+                    int u = 0;
+                    for(int i = 0; i < 4; i++)
+                    {
+                        int h = remaining() > 0 ? hexValue(peek()) : -1;
+                        if(h < 0)
+                            throw new RuntimeException("Expected 4 hex digits in a \\u escape sequence");
+                        u = (u << 4) | h;
+                        advance(1);
+                    }
+                    c = (char)u;
+                    break;
+                default: throw new RuntimeException("Unrecognized escape sequence");
+            }
+            reserve(len, len + 1)[len] = c;
+            return len + 1;
+        }
+
+        // Significant digits are accumulated in a long until it would exceed this
+        static final long MAX_MANTISSA = 100000000000000000L;
+
+        // Every power of 10 that a double represents exactly
+        static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        // The result of scanNumber
+        boolean isLong;
+        long longValue;
+        double doubleValue;
+
+        // Scans a number token straight from the input. Up to 18 significant digits
+        // are accumulated in a long, and a double is then made with a single exactly
+        // rounded multiply or divide when the mantissa and the power of 10 are both
+        // exact doubles. Longer mantissas and larger exponents fall back to
+        // Double.parseDouble or BigInteger, which are also correctly rounded.
+        // Integers that do not fit in a long become doubles.
+        void scanNumber()
+        {
+            boolean neg = false;
+            if(peek() == '-')
+            {
+                neg = true;
+                advance(1);
+            }
+            if(remaining() == 0 || peek() < '0' || peek() > '9')
+                throw new RuntimeException("Expected a digit in number");
+            long m = 0;
+            StringBuilder digits = null; // every significant digit, once m is full
+            int exp10 = 0;
+            boolean integer = true;
+            char c;
+            if(peek() == '0')
+            {
+                advance(1);
+                if(remaining() > 0 && peek() >= '0' && peek() <= '9')
+                    throw new RuntimeException("Integer cannot have a leading zero");
+            }
+            else
+            {
+                while(remaining() > 0 && (c = peek()) >= '0' && c <= '9')
+                {
+                    if(digits != null)
+                        digits.append(c);
+                    else if(m < MAX_MANTISSA)
+                        m = m * 10 + (c - '0');
+                    else
+                        digits = new StringBuilder().append(m).append(c);
+                    advance(1);
+                }
+            }
+            if(remaining() > 0 && peek() == '.')
+            {
+                integer = false;
+                advance(1);
+                if(remaining() == 0 || peek() < '0' || peek() > '9')
+                    throw new RuntimeException("Decimal must be followed by a number");
+                while(remaining() > 0 && (c = peek()) >= '0' && c <= '9')
+                {
+                    if(digits != null)
+                        digits.append(c);
+                    else if(m < MAX_MANTISSA)
+                        m = m * 10 + (c - '0');
+                    else
+                        digits = new StringBuilder().append(m).append(c);
+                    exp10--;
+                    advance(1);
+                }
+            }
+            if(remaining() > 0 && (peek() == 'e' || peek() == 'E'))
+            {
+                integer = false;
+                advance(1);
+                boolean negExp = false;
+                if(remaining() > 0 && (peek() == '+' || peek() == '-'))
+                {
+                    negExp = peek() == '-';
+                    advance(1);
+                }
+                if(remaining() == 0 || peek() < '0' || peek() > '9')
+                    throw new RuntimeException("Exponent must be followed by a number");
+                int e = 0;
+                while(remaining() > 0 && (c = peek()) >= '0' && c <= '9')
+                {
+                    if(e < 100000000)
+                        e = e * 10 + (c - '0');
+                    advance(1);
+                }
+                exp10 += negExp ? -e : e;
+            }
+            if(remaining() > 0)
+            {
+                c = peek();
+                if(c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != ',' && c != ']' && c != '}' && c != ':')
+                    throw new RuntimeException("Invalid character " + c + " in number");
+            }
+            if(integer)
+            {
+                if(digits == null)
+                {
+                    isLong = true;
+                    longValue = neg ? -m : m;
+                    return;
+                }
+                BigInteger big = new BigInteger(digits.toString());
+                if(neg)
+                    big = big.negate();
+                isLong = big.bitLength() < 64;
+                if(isLong)
+                    longValue = big.longValue();
+                else
+                    doubleValue = big.doubleValue();
+                return;
+            }
+            isLong = false;
+            double d;
+            if(digits == null && m <= (1L << 53) && exp10 >= -22 && exp10 <= 22)
+                d = exp10 < 0 ? m / POW10[-exp10] : m * POW10[exp10];
+            else if(digits == null && m == 0)
+                d = 0.0;
+            else
+                d = Double.parseDouble((digits == null ? Long.toString(m) : digits.toString()) + "E" + exp10);
+            doubleValue = neg ? -d : d;
+        }
+
+        // Checks the syntax of the value at the current position and moves past it
+        // without building anything. It accepts exactly what parseNode accepts.
+        void skipValue()
+        {
+            skipWhitespace();
+            if(remaining() == 0)
+                throw new RuntimeException("Unexpected end of JSON file");
+            char c = peek();
+            if(c == '"')
+            {
+                advance(1);
+                skipString();
+            }
+            else if(c == '{')
+                skipObject();
+            else if(c == '[')
+                skipList();
+            else if(c == 't')
+                expect("true");
+            else if(c == 'f')
+                expect("false");
+            else if(c == 'n')
+                expect("null");
+            else if((c >= '0' && c <= '9') || c == '-')
+                scanNumber();
+            else
+                throw new RuntimeException("Unexpected token at " + snippet(50));
+        }
+
+        void skipString()
+        {
+            while(true)
+            {
+                if(remaining() == 0)
+                    throw new RuntimeException("No closing \"");
+                char c = peek();
+                advance(1);
+                if(c == '"')
+                    return;
+                else if(c == '\\')
+                    unescape(0);
+                else if(c < ' ')
+                    throw new RuntimeException("Control characters must be escaped in strings");
+            }
+        }
+
+        void skipObject()
+        {
+            expect("{");
+            boolean readyForField = true;
+            while(remaining() > 0)
+            {
+                char c = peek();
+                if(c <= ' ')
+                    advance(1);
+                else if(c == '}')
+                {
+                    advance(1);
+                    return;
+                }
+                else if(c == ',')
+                {
+                    if(readyForField)
+                        throw new RuntimeException("Unexpected ','");
+                    advance(1);
+                    readyForField = true;
+                }
+                else if(c == '"')
+                {
+                    if(!readyForField)
+                        throw new RuntimeException("Expected a ',' before the next field in JSON file");
+                    advance(1);
+                    skipString();
+                    skipWhitespace();
+                    expect(":");
+                    skipValue();
+                    readyForField = false;
+                }
+                else
+                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + snippet(10));
+            }
+            throw new RuntimeException("Expected a matching '}' in JSON file");
+        }
+
+        void skipList()
+        {
+            expect("[");
+            boolean readyForValue = true;
+            while(remaining() > 0)
+            {
+                skipWhitespace();
+                if(remaining() == 0)
+                    break;
+                char c = peek();
+                if(c == ']')
+                {
+                    advance(1);
+                    return;
+                }
+                else if(c == ',')
+                {
+                    if(readyForValue)
+                        throw new RuntimeException("Unexpected ',' in JSON file");
+                    advance(1);
+                    readyForValue = true;
+                }
+                else
+                {
+                    if(!readyForValue)
+                        throw new RuntimeException("Expected a ',' or ']' in JSON file");
+                    skipValue();
+                    readyForValue = false;
+                }
+            }
+            throw new RuntimeException("Expected a matching ']' in JSON file");
+        }
+
+        // Moves past the value at the current position by counting brackets and quotes,
+        // without checking anything else. A number or literal ends at the next ',', '}',
+        // ']' or whitespace.
+        void skipUnchecked()
+        {
+            int depth = 0;
+            while(remaining() > 0)
+            {
+                char c = peek();
+                if(c == '"')
+                {
+                    advance(1);
+                    skipRawString();
+                    if(depth == 0)
+                        return;
+                }
+                else if(c == '{' || c == '[')
+                {
+                    advance(1);
+                    depth++;
+                }
+                else if(c == '}' || c == ']')
+                {
+                    if(depth == 0)
+                        return;
+                    advance(1);
+                    if(--depth == 0)
+                        return;
+                }
+                else if(depth == 0 && (c == ',' || c <= ' '))
+                    return;
+                else
+                    advance(1);
+            }
+            if(depth > 0)
+                throw new RuntimeException("Expected a matching bracket in JSON file");
+        }
+
+        // Moves past the rest of a string, to just after its closing quote
+        void skipRawString()
+        {
+            while(remaining() > 0)
+            {
+                char c = peek();
+                advance(1);
+                if(c == '"')
+                    return;
+                if(c == '\\' && remaining() > 0)
+                    advance(1);
+            }
+            throw new RuntimeException("No closing \"");
+        }
+
+        // Moves past an object or list that is already known to be valid, by
+        // counting brackets outside of strings
+        void skipChecked()
+        {
+            int depth = 0;
+            do
+            {
+                char c = peek();
+                advance(1);
+                if(c == '"')
+                {
+                    while((c = peek()) != '"')
+                        advance(c == '\\' ? 2 : 1);
+                    advance(1);
+                }
+                else if(c == '{' || c == '[')
+                    depth++;
+                else if(c == '}' || c == ']')
+                    depth--;
+            }
+            while(depth > 0);
+        }
+    }
+
+    public static class StringParser extends Parser
+    {
+        static final ThreadLocal<StringParser> LOCAL = ThreadLocal.withInitial(() ->
+        {
+            StringParser p = new StringParser();
+            p.release = true;
+            return p;
+        });
+
+        String str;
+        int pos;
+
+        public StringParser()
+        {
+            this("");
+        }
+
+        StringParser(String s)
+        {
+            str = s;
+            pos = 0;
+        }
+
+        // Returns this thread's parser, for servers that parse many small messages.
+        // Don't use it again while a value from it is still being parsed.
+        public static StringParser local()
+        {
+            return LOCAL.get();
+        }
+
+        public StringParser reset(String s)
+        {
+            reset();
+            str = s;
+            pos = 0;
+            return this;
+        }
+
+        void release()
+        {
+            str = "";
+            pos = 0;
+        }
+
+        int remaining()
+        {
+            return str.length() - pos;
+        }
+
+        char peek()
+        {
+            return str.charAt(pos);
+        }
+
+        void advance(int n)
+        {
+            pos += n;
+        }
+
+        void retreat(int n)
+        {
+            pos -= n;
+        }
+
+        void skipWhitespace()
+        {
+            while(pos < str.length() && str.charAt(pos) <= ' ')
+                pos++;
+        }
+
+        String readString()
+        {
+            int len = 0;
+            while(true)
+            {
+                int start = pos;
+                int i = pos;
+                char c = 0;
+                while(i < str.length() && (c = str.charAt(i)) != '"' && c != '\\' && c >= ' ')
+                    i++;
+                if(i >= str.length())
+                    throw new RuntimeException("No closing \"");
+                if(c < ' ')
+                    throw new RuntimeException("Control characters must be escaped in strings");
+                pos = i + 1;
+                if(c == '"' && len == 0)
+                {
+                    // No escapes, so the token is just a substring
+                    if(symbols != null)
+                        return symbols.get(str, start, i);
+                    return str.substring(start, i);
+                }
+                int run = i - start;
+                str.getChars(start, i, reserve(len, len + run), len);
+                len += run;
+                if(c == '"')
+                    return finish(len);
+                len = unescape(len);
+            }
+        }
+
+        String snippet(int n)
+        {
+            return str.substring(pos, Math.min(str.length(), pos + n));
+        }
+
+        int position()
+        {
+            return pos;
+        }
+
+        Parser reopen(int start)
+        {
+            StringParser p = new StringParser(str);
+            p.pos = start;
+            p.symbols = symbols;
+            return p;
+        }
+
+        void expect(String s)
+        {
+            if(!str.substring(pos, Math.min(str.length(), pos + s.length())).equals(s))
+                throw new RuntimeException("Expected \"" + s + "\", Got \"" + str.substring(pos, Math.min(str.length(), pos + s.length())) + "\"");
+            pos += s.length();
+        }
+
+        String until(char c)
+        {
+            int i = pos;
+            while(i < str.length() && str.charAt(i) != c)
+                i++;
+            String s = str.substring(pos, i);
+            pos = i;
+            return s;
+        }
+
+        String until(char a, char b)
+        {
+            int i = pos;
+            while(i < str.length() && str.charAt(i) != a && str.charAt(i) != b)
+                i++;
+            String s = str.substring(pos, i);
+            pos = i;
+            return s;
+        }
+
+        String untilWhitespace()
+        {
+            int i = pos;
+            while(i < str.length() && str.charAt(i) > ' ')
+                i++;
+            String s = str.substring(pos, i);
+            pos = i;
+            return s;
+        }
+
+        String untilQuoteSensitive(char a, char b)
+        {
+            if(peek() == '"')
+            {
+                advance(1);
+                String s = "\"" + until('"') + "\"";
+                advance(1);
+                until(a, b);
+                return s;
+            }
+            else
+                return until(a, b);
+        }
+
+        String whileReal()
+        {
+            int i = pos;
+            while(i < str.length())
+            {
+                char c = str.charAt(i);
+                if((c >= '0' && c <= '9') ||
+                        (c == '-' ||
+                        c == '+' ||
+                        c == '.' ||
+                        c == 'e' ||
+                        c == 'E' ||
+                        (int)c == 32 ||
+                        (int)c == 10))
+                    i++;
+                else if (c == ',' || c == ':' || c == ']' || c == '}')
+                    break;
+                else
+                    throw new RuntimeException("Invalid character " + c + " in number");
+            }
+            String s = str.substring(pos, i).trim();
+            pos = i;
+            return s;
+        }
+    }
+
+    // Parses UTF-8 encoded input directly. Structural characters, numbers and literals
+    // are all ASCII, so bytes are only decoded inside string tokens.
+    public static class ByteParser extends Parser
+    {
+        // How many bytes behind the current position a refill keeps, so a short retreat is always possible
+        static final int MARGIN = 4;
+
+        static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+        static final ThreadLocal<ByteParser> LOCAL = ThreadLocal.withInitial(() ->
+        {
+            ByteParser p = new ByteParser();
+            p.release = true;
+            return p;
+        });
+
+        ByteBuffer buf;
+        int pos;
+        int limit;
+
+        public ByteParser()
+        {
+            this(EMPTY);
+        }
+
+        ByteParser(ByteBuffer b)
+        {
+            buf = b;
+            pos = b.position();
+            limit = b.limit();
+        }
+
+        // Returns this thread's parser, for servers that parse many small messages.
+        // Don't use it again while a value from it is still being parsed.
+        public static ByteParser local()
+        {
+            return LOCAL.get();
+        }
+
+        public ByteParser reset(byte[] b)
+        {
+            return reset(ByteBuffer.wrap(b));
+        }
+
+        // Parses the bytes between the buffer's position and limit
+        public ByteParser reset(ByteBuffer b)
+        {
+            reset();
+            buf = b;
+            pos = b.position();
+            limit = b.limit();
+            return this;
+        }
+
+        void release()
+        {
+            buf = EMPTY;
+            pos = 0;
+            limit = 0;
+        }
+
+        // Makes at least n bytes available past pos, if the input has that many.
+        // Subclasses that only hold a window of their input override this to move it.
+        boolean fill(int n)
+        {
+            return limit - pos >= n;
+        }
+
+        int remaining()
+        {
+            if(pos >= limit)
+                fill(1);
+            return limit - pos;
+        }
+
+        char peek()
+        {
+            if(pos >= limit)
+                fill(1);
+            return (char)(buf.get(pos) & 0xff);
+        }
+
+        void advance(int n)
+        {
+            pos += n;
+        }
+
+        void retreat(int n)
+        {
+            pos -= n;
+        }
+
+        void skipWhitespace()
+        {
+            while((pos < limit || fill(1)) && (buf.get(pos) & 0xff) <= ' ')
+                pos++;
+        }
+
+        void expect(String s)
+        {
+            int n = s.length();
+            boolean match = fill(n);
+            for(int i = 0; match && i < n; i++)
+            {
+                if(buf.get(pos + i) != (byte)s.charAt(i))
+                    match = false;
+            }
+            if(!match)
+                throw new RuntimeException("Expected \"" + s + "\", Got \"" + snippet(n) + "\"");
+            pos += n;
+        }
+
+        String readString()
+        {
+            int len = 0;
+            char[] out = scratch;
+            while(true)
+            {
+                // Copy a run of plain ASCII
+                int end = limit;
+                int b = 0;
+                while(pos < end && (b = buf.get(pos)) >= ' ' && b != '"' && b != '\\')
+                {
+                    if(len == out.length)
+                        out = reserve(len, len + 1);
+                    out[len++] = (char)b;
+                    pos++;
+                }
+                if(pos >= end)
+                {
+                    if(!fill(1))
+                        throw new RuntimeException("No closing \"");
+                    continue;
+                }
+                if(b == '"')
+                {
+                    pos++;
+                    return finish(len);
+                }
+                else if(b == '\\')
+                {
+                    pos++;
+                    len = unescape(len);
+                    out = scratch;
+                }
+                else if(b < 0)
+                {
+                    len = decode(len);
+                    out = scratch;
+                }
+                else
+                    throw new RuntimeException("Control characters must be escaped in strings");
+            }
+        }
+
+        // Decodes the UTF-8 sequence at the current position onto scratch at len,
+        // and returns the new length. Malformed input decodes to U+FFFD.
+        int decode(int len)
+        {
+            if(limit - pos < 4)
+                fill(4);
+            char[] out = reserve(len, len + 2);
+            int b = buf.get(pos) & 0xff;
+            int n;
+            int cp;
+            int min;
+            if(b >= 0xc2 && b < 0xe0)
+            {
+                n = 1;
+                cp = b & 0x1f;
+                min = 0x80;
+            }
+            else if(b >= 0xe0 && b < 0xf0)
+            {
+                n = 2;
+                cp = b & 0x0f;
+                min = 0x800;
+            }
+            else if(b >= 0xf0 && b < 0xf5)
+            {
+                n = 3;
+                cp = b & 0x07;
+                min = 0x10000;
+            }
+            else
+            {
+                // Not a valid lead byte
+                out[len] = '\ufffd';
+                pos++;
+                return len + 1;
+            }
+            for(int i = 1; i <= n; i++)
+            {
+                int c = pos + i < limit ? buf.get(pos + i) & 0xff : 0;
+                if((c & 0xc0) != 0x80)
+                {
+                    // Truncated sequence
+                    out[len] = '\ufffd';
+                    pos += i;
+                    return len + 1;
+                }
+                cp = (cp << 6) | (c & 0x3f);
+            }
+            pos += n + 1;
+            if(cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff))
+                out[len++] = '\ufffd';
+            else if(cp >= 0x10000)
+            {
+                out[len++] = Character.highSurrogate(cp);
+                out[len++] = Character.lowSurrogate(cp);
+            }
+            else
+                out[len++] = (char)cp;
+            return len;
+        }
+
+        int position()
+        {
+            return pos;
+        }
+
+        Parser reopen(int start)
+        {
+            ByteParser p = new ByteParser(buf);
+            p.pos = start;
+            p.symbols = symbols;
+            return p;
+        }
+
+        String snippet(int n)
+        {
+            ByteBuffer b = buf.duplicate();
+            b.limit(Math.min(limit, pos + n));
+            b.position(pos);
+            return StandardCharsets.UTF_8.decode(b).toString();
+        }
+    }
+
+    // Parses a file through a window of memory mapped bytes. When the parser reaches
+    // the end of the window, the next window is mapped starting just before the
+    // current position, so a short retreat is always possible.
+    static class MappedParser extends ByteParser
+    {
+        static final int WINDOW = 1 << 30;
+
+        FileChannel channel;
+        long size;
+        long base;
+        int window;
+
+        MappedParser(FileChannel ch, int win) throws IOException
+        {
+            super(ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), win)));
+            if(win <= 4 * MARGIN)
+                throw new IllegalArgumentException("The window is too small");
+            channel = ch;
+            size = ch.size();
+            base = 0;
+            window = win;
+        }
+
+        boolean fill(int n)
+        {
+            if(limit - pos >= n)
+                return true;
+            if(base + limit >= size)
+                return false;
+            long start = Math.max(0, base + pos - MARGIN);
+            long len = Math.min(size - start, window);
+            try
+            {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            pos = (int)(base + pos - start);
+            limit = (int)len;
+            base = start;
+            return limit - pos >= n;
+        }
+    }
+
+    // Parses bytes from an InputStream through a fixed size buffer, so memory use does
+    // not depend on the size of the input.
+    static class StreamParser extends ByteParser
+    {
+        static final int BUFFER_SIZE = 1 << 16;
+
+        InputStream in;
+        byte[] bytes;
+        boolean eof;
+
+        StreamParser(InputStream s, int size)
+        {
+            super(ByteBuffer.wrap(new byte[size]));
+            if(size <= 4 * MARGIN)
+                throw new IllegalArgumentException("The buffer is too small");
+            in = s;
+            bytes = buf.array();
+            limit = 0;
+            eof = false;
+        }
+
+        boolean fill(int n)
+        {
+            if(limit - pos >= n)
+                return true;
+            int start = Math.max(0, pos - MARGIN);
+            System.arraycopy(bytes, start, bytes, 0, limit - start);
+            pos -= start;
+            limit -= start;
+            try
+            {
+                while(limit - pos < n && !eof)
+                {
+                    int count = in.read(bytes, limit, bytes.length - limit);
+                    if(count < 0)
+                        eof = true;
+                    else
+                        limit += count;
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            return limit - pos >= n;
+        }
+    }
+
+    // Stage one of parseIndexed. It finds the position of each structural character
+    // outside of strings, and of the opening quote of each string. Each 8 byte word is
+    // classified with SWAR bit tricks into 64 bit masks for a 64 byte block. Escapes and
+    // strings are then resolved for the whole block with the carry and prefix xor
+    // method from simdjson.
+    static class StructuralIndex
+    {
+        static final long ONES = 0x0101010101010101L;
+        static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+        static final long EVEN_BITS = 0x5555555555555555L;
+
+        int[] positions;
+        int count;
+
+        StructuralIndex(byte[] b, int len)
+        {
+            positions = new int[Math.max(16, len / 4)];
+            count = 0;
+            ByteBuffer words = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] tail = new byte[64];
+            long prevEscaped = 0;
+            long prevInString = 0;
+            for(int block = 0; block < len; block += 64)
+            {
+                ByteBuffer src = words;
+                int base = block;
+                if(len - block < 64)
+                {
+                    // Pad the last block with spaces
+                    Arrays.fill(tail, (byte)' ');
+                    System.arraycopy(b, block, tail, 0, len - block);
+                    src = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+                    base = 0;
+                }
+                long quote = 0;
+                long backslash = 0;
+                long structural = 0;
+                for(int i = 0; i < 8; i++)
+                {
+                    long w = src.getLong(base + i * 8);
+                    // '{' and '[' differ from '}' and ']' only in bit 5
+                    long folded = w | (0x20 * ONES);
+                    long s = equalBytes(folded, '{' * ONES) |
+                        equalBytes(folded, '}' * ONES) |
+                        equalBytes(w, ':' * ONES) |
+                        equalBytes(w, ',' * ONES);
+                    quote |= gather(equalBytes(w, '"' * ONES)) << (i * 8);
+                    backslash |= gather(equalBytes(w, '\\' * ONES)) << (i * 8);
+                    structural |= gather(s) << (i * 8);
+                }
+
+                // A character is escaped if it follows an odd length run of backslashes
+                backslash &= ~prevEscaped;
+                long followsEscape = (backslash << 1) | prevEscaped;
+                long oddStarts = backslash & ~EVEN_BITS & ~followsEscape;
+                long evenStarts = oddStarts + backslash;
+                prevEscaped = Long.compareUnsigned(evenStarts, backslash) < 0 ? 1 : 0;
+                long escaped = (EVEN_BITS ^ (evenStarts << 1)) & followsEscape;
+
+                // Each unescaped quote toggles whether we are in a string
+                quote &= ~escaped;
+                long inString = quote;
+                inString ^= inString << 1;
+                inString ^= inString << 2;
+                inString ^= inString << 4;
+                inString ^= inString << 8;
+                inString ^= inString << 16;
+                inString ^= inString << 32;
+                inString ^= prevInString;
+                prevInString = inString >> 63;
+
+                long found = (structural & ~inString) | (quote & inString);
+                if(count + 64 > positions.length)
+                    positions = Arrays.copyOf(positions, positions.length * 2 + 64);
+                while(found != 0)
+                {
+                    positions[count++] = block + Long.numberOfTrailingZeros(found);
+                    found &= found - 1;
+                }
+            }
+        }
+
+        // Sets the high bit of each byte of w that equals the byte repeated in b
+        static long equalBytes(long w, long b)
+        {
+            long x = w ^ b;
+            return ~(((x & LOW7) + LOW7) | x | LOW7);
+        }
+
+        // Moves the high bit of each byte into the low 8 bits
+        static long gather(long m)
+        {
+            return ((m >>> 7) * 0x0102040810204080L) >>> 56;
+        }
+    }
+
+    // Stage two of parseIndexed. It walks the structural index instead of the bytes
+    // between structural characters. A string with no escapes or non-ASCII bytes is
+    // copied straight out of the input, since its closing quote is the last one
+    // before the next structural character. Everything else falls back to the
+    // ByteParser primitives. The structure is checked with the same rules as
+    // parseObject and parseList.
+    static class IndexedParser extends ByteParser
+    {
+        byte[] bytes;
+        int[] index;
+        int count;
+        int next;
+
+        IndexedParser(byte[] b, StructuralIndex si)
+        {
+            super(ByteBuffer.wrap(b));
+            bytes = b;
+            index = si.positions;
+            count = si.count;
+            next = 0;
+        }
+
+        // Tells whether the character at p is structural, and moves the cursor to it
+        boolean indexed(int p)
+        {
+            while(next < count && index[next] < p)
+                next++;
+            return next < count && index[next] == p;
+        }
+
+        Json parseValue()
+        {
+            skipWhitespace();
+            if(pos >= limit)
+                throw new RuntimeException("Unexpected end of JSON file");
+            char c = (char)(bytes[pos] & 0xff);
+            if(indexed(pos))
+            {
+                if(c == '"')
+                    return new JString(stringAt());
+                else if(c == '{')
+                    return objectAt();
+                else if(c == '[')
+                    return listAt();
+            }
+            else if(c == 't')
+            {
+                expect("true");
+                return new JBool(true);
+            }
+            else if(c == 'f')
+            {
+                expect("false");
+                return new JBool(false);
+            }
+            else if(c == 'n')
+            {
+                expect("null");
+                return new JNull();
+            }
+            else if((c >= '0' && c <= '9') || c == '-')
+                return JDouble.parseNumber(this);
+            throw new RuntimeException("Unexpected token at " + snippet(50));
+        }
+
+        // Reads the string whose opening quote is at pos
+        String stringAt()
+        {
+            int q = pos;
+            next++;
+            int end = next < count ? index[next] : limit;
+            int c = end - 1;
+            while(c > q && (bytes[c] & 0xff) <= ' ')
+                c--;
+            if(c > q && bytes[c] == '"')
+            {
+                int i = q + 1;
+                byte b;
+                while(i < c && (b = bytes[i]) >= ' ' && b != '"' && b != '\\')
+                    i++;
+                if(i == c)
+                {
+                    pos = c + 1;
+                    if(symbols != null)
+                    {
+                        char[] out = reserve(0, c - q - 1);
+                        for(int j = q + 1; j < c; j++)
+                            out[j - q - 1] = (char)bytes[j];
+                        return finish(c - q - 1);
+                    }
+                    return new String(bytes, q + 1, c - q - 1, StandardCharsets.ISO_8859_1);
+                }
+            }
+            pos = q + 1;
+            return readString();
+        }
+
+        JObject objectAt()
+        {
+            pos++;
+            next++;
+            JObject newOb = new JObject();
+            boolean readyForField = true;
+            while(true)
+            {
+                skipWhitespace();
+                if(pos >= limit)
+                    throw new RuntimeException("Expected a matching '}' in JSON file");
+                char c = (char)(bytes[pos] & 0xff);
+                boolean structural = indexed(pos);
+                if(structural && c == '}')
+                {
+                    pos++;
+                    next++;
+                    return newOb;
+                }
+                else if(structural && c == ',')
+                {
+                    if(readyForField)
+                        throw new RuntimeException("Unexpected ','");
+                    pos++;
+                    next++;
+                    readyForField = true;
+                }
+                else if(structural && c == '"')
+                {
+                    if(!readyForField)
+                        throw new RuntimeException("Expected a ',' before the next field in JSON file");
+                    String name = stringAt();
+                    skipWhitespace();
+                    if(pos >= limit || bytes[pos] != ':' || !indexed(pos))
+                        throw new RuntimeException("Expected \":\", Got \"" + snippet(1) + "\"");
+                    pos++;
+                    next++;
+                    newOb.add(name, parseValue());
+                    readyForField = false;
+                }
+                else
+                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + snippet(10));
+            }
+        }
+
+        JList listAt()
+        {
+            pos++;
+            next++;
+            JList newList = new JList();
+            boolean readyForValue = true;
+            while(true)
+            {
+                skipWhitespace();
+                if(pos >= limit)
+                    throw new RuntimeException("Expected a matching ']' in JSON file");
+                char c = (char)(bytes[pos] & 0xff);
+                boolean structural = indexed(pos);
+                if(structural && c == ']')
+                {
+                    pos++;
+                    next++;
+                    return newList;
+                }
+                else if(structural && c == ',')
+                {
+                    if(readyForValue)
+                        throw new RuntimeException("Unexpected ',' in JSON file");
+                    pos++;
+                    next++;
+                    readyForValue = true;
+                }
+                else
+                {
+                    if(!readyForValue)
+                        throw new RuntimeException("Expected a ',' or ']' in JSON file");
+                    newList.add(parseValue());
+                    readyForValue = false;
+                }
+            }
+        }
+    }
+
+    // A run of whole lines of JSON Lines input, and the values parsed from it
+    static class LineChunk
+    {
+        ByteBuffer bytes;
+        ArrayList<Json> values;
+        int lines;
+        RuntimeException error;
+
+        LineChunk(ByteBuffer b)
+        {
+            bytes = b;
+        }
+
+        void parse()
+        {
+            values = new ArrayList<Json>();
+            ByteParser p = new ByteParser(bytes);
+            int end = bytes.limit();
+            int start = bytes.position();
+            lines = 0;
+            try
+            {
+                while(start < end)
+                {
+                    int eol = start;
+                    while(eol < end && bytes.get(eol) != '\n')
+                        eol++;
+                    p.pos = start;
+                    p.limit = eol;
+                    p.skipWhitespace();
+                    if(p.pos < eol)
+                    {
+                        values.add(Json.parseNode(p));
+                        p.skipWhitespace();
+                        if(p.pos < eol)
+                            throw new RuntimeException("Unexpected " + p.snippet(10) + " after the value");
+                    }
+                    lines++;
+                    start = eol + 1;
+                }
+            }
+            catch(RuntimeException e)
+            {
+                error = e;
+            }
+            bytes = null;
+        }
+
+        // Passes the values on to sink and returns the number of the line after this chunk
+        long deliver(long firstLine, Consumer<Json> sink)
+        {
+            if(error != null)
+                throw new RuntimeException("Error on line " + (firstLine + lines + 1) + ": " + error.getMessage(), error);
+            for(int i = 0; i < values.size(); i++)
+                sink.accept(values.get(i));
+            return firstLine + lines;
+        }
+    }
+
+    // Cuts JSON Lines input into chunks that end at line boundaries
+    abstract static class LineSource
+    {
+        static final int CHUNK_SIZE = 1 << 22;
+
+        // Returns the next chunk, or null at the end of the input
+        abstract ByteBuffer next();
+    }
+
+    // Maps each chunk of a file separately. A chunk ends at the first line break past
+    // its nominal size, so a chunk only grows past that size for a very long line.
+    static class FileLines extends LineSource
+    {
+        FileChannel channel;
+        long size;
+        long start;
+        int chunkSize;
+        ByteBuffer probe;
+
+        FileLines(FileChannel ch, int chunk) throws IOException
+        {
+            channel = ch;
+            size = ch.size();
+            start = 0;
+            chunkSize = chunk;
+            probe = ByteBuffer.allocate(4096);
+        }
+
+        ByteBuffer next()
+        {
+            if(start >= size)
+                return null;
+            try
+            {
+                long end = Math.min(size, start + chunkSize);
+                while(end < size)
+                {
+                    // Look for the end of the line that the nominal end falls in
+                    probe.clear();
+                    int n = channel.read(probe, end - 1);
+                    int i = 0;
+                    while(i < n && probe.get(i) != '\n')
+                        i++;
+                    if(i < n)
+                    {
+                        end += i;
+                        break;
+                    }
+                    end = Math.min(size, end + n);
+                }
+                if(end - start > Integer.MAX_VALUE)
+                    throw new RuntimeException("A line is too long to map");
+                ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                start = end;
+                return b;
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Reads a stream into a fresh buffer for each chunk. The partial line at the end
+    // of a read is moved to the start of the next chunk.
+    static class StreamLines extends LineSource
+    {
+        InputStream in;
+        int chunkSize;
+        byte[] carry;
+        int carried;
+        boolean eof;
+
+        StreamLines(InputStream s, int chunk)
+        {
+            in = s;
+            chunkSize = chunk;
+            carry = new byte[0];
+            carried = 0;
+            eof = false;
+        }
+
+        ByteBuffer next()
+        {
+            if(eof && carried == 0)
+                return null;
+            byte[] b = new byte[Math.max(chunkSize, carried * 2)];
+            System.arraycopy(carry, 0, b, 0, carried);
+            int len = carried;
+            try
+            {
+                while(true)
+                {
+                    while(len < b.length && !eof)
+                    {
+                        int n = in.read(b, len, b.length - len);
+                        if(n < 0)
+                            eof = true;
+                        else
+                            len += n;
+                    }
+                    int end = len;
+                    if(!eof)
+                    {
+                        while(end > 0 && b[end - 1] != '\n')
+                            end--;
+                    }
+                    if(end > 0 || eof)
+                    {
+                        carried = len - end;
+                        if(carry.length < carried)
+                            carry = new byte[Math.max(carried, chunkSize)];
+                        System.arraycopy(b, end, carry, 0, carried);
+                        return ByteBuffer.wrap(b, 0, end);
+                    }
+                    // The buffer holds part of one long line
+                    b = Arrays.copyOf(b, b.length * 2);
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Parses the elements of a list in parallel. A sequential scan that tracks strings
+    // and nesting depth first finds the commas between the elements. Then ranges of
+    // elements are parsed by fork join tasks into an array, which becomes the list.
+    static class ParallelList extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        static final int MIN_SIZE = 1 << 20;
+        static final int BATCH_SIZE = 1 << 16;
+
+        byte[] bytes;
+        int[] seps; // the '[', each comma between elements, and the ']'
+        int count;
+        Json[] items;
+        SymbolTable symbols;
+        int batchSize;
+        int lo;
+        int hi;
+
+        ParallelList(ParallelList parent, int from, int to)
+        {
+            bytes = parent.bytes;
+            seps = parent.seps;
+            count = parent.count;
+            items = parent.items;
+            symbols = parent.symbols;
+            batchSize = parent.batchSize;
+            lo = from;
+            hi = to;
+        }
+
+        ParallelList(byte[] b, int[] s, int n, SymbolTable sym, int batch)
+        {
+            bytes = b;
+            seps = s;
+            count = n;
+            items = new Json[n];
+            symbols = sym;
+            batchSize = batch;
+            lo = 0;
+            hi = n;
+        }
+
+        // Returns null if the list does not look well formed, so the caller can fall back
+        static Json parse(byte[] b, int start, SymbolTable symbols, int batchSize)
+        {
+            int[] seps = separators(b, start);
+            if(seps == null)
+                return null;
+            ParallelList task = new ParallelList(b, seps, seps.length - 1, symbols, batchSize);
+            ForkJoinPool.commonPool().invoke(task);
+            JList list = new JList();
+            for(int i = 0; i < task.count; i++)
+            {
+                if(task.items[i] != null)
+                    list.add(task.items[i]);
+            }
+            return list;
+        }
+
+        static int[] separators(byte[] b, int start)
+        {
+            int[] seps = new int[1024];
+            int n = 0;
+            seps[n++] = start;
+            int depth = 0;
+            for(int i = start + 1; i < b.length; i++)
+            {
+                byte c = b[i];
+                if(c == '"')
+                {
+                    i++;
+                    while(i < b.length && b[i] != '"')
+                    {
+                        if(b[i] == '\\')
+                            i++;
+                        i++;
+                    }
+                }
+                else if(c == '[' || c == '{')
+                    depth++;
+                else if(c == ']' || c == '}')
+                {
+                    if(depth == 0)
+                    {
+                        if(c != ']')
+                            return null;
+                        if(n == seps.length)
+                            seps = Arrays.copyOf(seps, n + 1);
+                        seps[n++] = i;
+                        return Arrays.copyOf(seps, n);
+                    }
+                    depth--;
+                }
+                else if(c == ',' && depth == 0)
+                {
+                    if(n == seps.length)
+                        seps = Arrays.copyOf(seps, n * 2);
+                    seps[n++] = i;
+                }
+            }
+            return null;
+        }
+
+        protected void compute()
+        {
+            if(hi - lo <= 1 || seps[hi] - seps[lo] <= batchSize)
+            {
+                parseRange();
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ParallelList(this, lo, mid), new ParallelList(this, mid, hi));
+        }
+
+        void parseRange()
+        {
+            ByteParser p = new ByteParser(ByteBuffer.wrap(bytes));
+            p.symbols = symbols;
+            for(int i = lo; i < hi; i++)
+            {
+                p.pos = seps[i] + 1;
+                p.limit = seps[i + 1];
+                p.skipWhitespace();
+                if(p.pos == p.limit)
+                {
+                    // Only the last element may be empty, as in "[]" or "[1,]"
+                    if(i < count - 1)
+                        throw new RuntimeException("Unexpected ',' in JSON file");
+                    continue;
+                }
+                items[i] = Json.parseNode(p);
+                p.skipWhitespace();
+                if(p.pos < p.limit)
+                    throw new RuntimeException("Expected a ',' or ']' in JSON file");
+            }
+        }
+    }
+
+    // A compiled path to values inside a document. A path is a sequence of steps. Each
+    // step is a name, as in .name or ['name'], an index into a list, as in [3], or a
+    // wildcard, as in .* or [*], which matches every field of an object and every item
+    // of a list. A leading $ is optional.
+    //
+    // extract and extractAll scan the raw input and only build nodes for the values the
+    // path matches. Names are compared in place, and everything else is skipped by
+    // counting brackets and quotes, so the parts that are skipped are not checked for
+    // errors. extract stops scanning at the first match.
+    public static class JsonPath
+    {
+        static final byte NAME = 0;
+        static final byte INDEX = 1;
+        static final byte ANY = 2;
+
+        byte[] kinds;
+        String[] names;
+        int[] indexes;
+        int count;
+
+        JsonPath(String path)
+        {
+            kinds = new byte[4];
+            names = new String[4];
+            indexes = new int[4];
+            int i = path.startsWith("$") ? 1 : 0;
+            if(i == 0 && path.length() > 0 && path.charAt(0) != '.' && path.charAt(0) != '[')
+                i = addName(path, i);
+            while(i < path.length())
+            {
+                char c = path.charAt(i);
+                if(c == '.')
+                    i = addName(path, i + 1);
+                else if(c == '[')
+                {
+                    char quote = i + 1 < path.length() ? path.charAt(i + 1) : 0;
+                    int end = quote == '\'' || quote == '"' ? path.indexOf(quote + "]", i + 2) + 1 : path.indexOf(']', i);
+                    if(end <= 0)
+                        throw new RuntimeException("Expected a ']' in path " + path);
+                    String inside = path.substring(i + 1, end);
+                    if(inside.equals("*"))
+                        add(ANY, null, 0);
+                    else if(quote == '\'' || quote == '"')
+                        add(NAME, inside.substring(1, inside.length() - 1), 0);
+                    else
+                    {
+                        try
+                        {
+                            add(INDEX, null, Integer.parseInt(inside));
+                        }
+                        catch(NumberFormatException e)
+                        {
+                            throw new RuntimeException("Expected an index, a quoted name or * in the brackets of path " + path);
+                        }
+                    }
+                    i = end + 1;
+                }
+                else
+                    throw new RuntimeException("Expected a '.' or '[' at position " + i + " of path " + path);
+            }
+        }
+
+        int addName(String path, int start)
+        {
+            int end = start;
+            while(end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[')
+                end++;
+            if(end == start)
+                throw new RuntimeException("Expected a name at position " + start + " of path " + path);
+            String name = path.substring(start, end);
+            if(name.equals("*"))
+                add(ANY, null, 0);
+            else
+                add(NAME, name, 0);
+            return end;
+        }
+
+        void add(byte kind, String name, int index)
+        {
+            if(count == kinds.length)
+            {
+                kinds = Arrays.copyOf(kinds, count * 2);
+                names = Arrays.copyOf(names, count * 2);
+                indexes = Arrays.copyOf(indexes, count * 2);
+            }
+            kinds[count] = kind;
+            names[count] = name;
+            indexes[count] = index;
+            count++;
+        }
+
+        // Returns the first value the path matches, or null if it matches none
+        public Json extract(String s)
+        {
+            return extract(new StringParser(s));
+        }
+
+        public Json extract(byte[] b)
+        {
+            return extract(new ByteParser(ByteBuffer.wrap(b)));
+        }
+
+        // Returns every value the path matches, in document order
+        public List<Json> extractAll(String s)
+        {
+            return extractAll(new StringParser(s));
+        }
+
+        public List<Json> extractAll(byte[] b)
+        {
+            return extractAll(new ByteParser(ByteBuffer.wrap(b)));
+        }
+
+        Json extract(Parser p)
+        {
+            ArrayList<Json> found = new ArrayList<Json>(1);
+            find(p, 0, found, false);
+            return found.size() > 0 ? found.get(0) : null;
+        }
+
+        List<Json> extractAll(Parser p)
+        {
+            ArrayList<Json> found = new ArrayList<Json>();
+            find(p, 0, found, true);
+            return found;
+        }
+
+        // Matches the steps from step on against the value at the current position, and
+        // moves past that value unless it is done. Returns true when it is done, which is
+        // after the first match unless all is set.
+        boolean find(Parser p, int step, ArrayList<Json> found, boolean all)
+        {
+            p.skipWhitespace();
+            if(p.remaining() == 0)
+                throw new RuntimeException("Unexpected end of JSON file");
+            if(step == count)
+            {
+                found.add(Json.parseNode(p));
+                return !all;
+            }
+            char c = p.peek();
+            byte kind = kinds[step];
+            if(c == '{' && kind != INDEX)
+                return findField(p, step, found, all);
+            else if(c == '[' && kind != NAME)
+                return findItem(p, step, found, all);
+            p.skipUnchecked();
+            return false;
+        }
+
+        boolean findField(Parser p, int step, ArrayList<Json> found, boolean all)
+        {
+            p.advance(1);
+            boolean passed = false; // set after the field with the name, since only the first one counts, as with get
+            while(true)
+            {
+                p.skipWhitespace();
+                if(p.remaining() == 0)
+                    throw new RuntimeException("Expected a matching '}' in JSON file");
+                char c = p.peek();
+                if(c == '}')
+                {
+                    p.advance(1);
+                    return false;
+                }
+                else if(c == ',')
+                    p.advance(1);
+                else if(c == '"')
+                {
+                    p.advance(1);
+                    boolean match;
+                    if(kinds[step] == NAME && !passed)
+                        match = matchName(p, names[step]);
+                    else
+                    {
+                        p.skipRawString();
+                        match = kinds[step] == ANY;
+                    }
+                    p.skipWhitespace();
+                    p.expect(":");
+                    if(match)
+                    {
+                        if(find(p, step + 1, found, all))
+                            return true;
+                        passed = kinds[step] == NAME;
+                    }
+                    else
+                    {
+                        p.skipWhitespace();
+                        p.skipUnchecked();
+                    }
+                }
+                else
+                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + p.snippet(10));
+            }
+        }
+
+        boolean findItem(Parser p, int step, ArrayList<Json> found, boolean all)
+        {
+            p.advance(1);
+            int index = 0;
+            while(true)
+            {
+                p.skipWhitespace();
+                if(p.remaining() == 0)
+                    throw new RuntimeException("Expected a matching ']' in JSON file");
+                char c = p.peek();
+                if(c == ']')
+                {
+                    p.advance(1);
+                    return false;
+                }
+                else if(c == ',')
+                    p.advance(1);
+                else
+                {
+                    if(kinds[step] == ANY || indexes[step] == index)
+                    {
+                        if(find(p, step + 1, found, all))
+                            return true;
+                    }
+                    else
+                        p.skipUnchecked();
+                    index++;
+                }
+            }
+        }
+
+        // Returns a copy of node with the value at the steps from i on set to value, or
+        // removed if value is null. Only the objects and lists on the path are copied,
+        // and the copies share everything else with node. If there is nothing to
+        // remove, node itself is returned.
+        Json update(Json node, int i, Json value)
+        {
+            if(i == count)
+                return value;
+            node = node.resolve();
+            boolean adding = value != null && i == count - 1;
+            if(kinds[i] == NAME)
+            {
+                if(!(node instanceof JObject))
+                    throw new RuntimeException("Expected an object at step " + i + " of the path");
+                JObject ob = (JObject)node;
+                int pos = ob.position(names[i]);
+                if(pos < 0)
+                {
+                    if(value == null)
+                        return node;
+                    if(!adding)
+                        throw new RuntimeException("No field named \"" + names[i] + "\" found.");
+                    return ob.copyWith(ob.fields.size(), names[i], value);
+                }
+                Json child = ob.fields.get(pos).value;
+                Json updated = update(child, i + 1, value);
+                return updated == child ? node : ob.copyWith(pos, names[i], updated);
+            }
+            if(kinds[i] == INDEX)
+            {
+                if(!(node instanceof JList))
+                    throw new RuntimeException("Expected a list at step " + i + " of the path");
+                JList list = (JList)node;
+                int index = indexes[i];
+                if(index == list.size() && adding)
+                    return list.copyWith(index, value);
+                if(index < 0 || index >= list.size())
+                {
+                    if(value == null)
+                        return node;
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.size());
+                }
+                Json child = list.get(index);
+                Json updated = update(child, i + 1, value);
+                return updated == child ? node : list.copyWith(index, updated);
+            }
+            throw new RuntimeException("A path for with or without cannot use *");
+        }
+
+        // Reads the name that starts just past its opening quote and tells whether it is
+        // equal to name. Names without escapes or non-ASCII characters are compared in
+        // place, and the others are decoded first.
+        static boolean matchName(Parser p, String name)
+        {
+            int start = p.position();
+            int i = 0;
+            while(p.remaining() > 0)
+            {
+                char c = p.peek();
+                if(c == '"')
+                {
+                    p.advance(1);
+                    return i == name.length();
+                }
+                if(c == '\\' || c >= 0x80)
+                {
+                    p.retreat(p.position() - start);
+                    return name.equals(p.readString());
+                }
+                p.advance(1);
+                if(i == name.length() || name.charAt(i) != c)
+                {
+                    p.skipRawString();
+                    return false;
+                }
+                i++;
+            }
+            throw new RuntimeException("No closing \"");
+        }
+    }
+
+    // A pull parser that reports a JSON document one token at a time, without building
+    // a DOM. Memory use only grows with the nesting depth. Here is an example that sums
+    // the "price" fields in a large list of objects:
+    //
+    // Json.Reader r = Json.reader(Paths.get("items.json"));
+    // double total = 0.0;
+    // r.nextToken(); // START_LIST
+    // while(r.nextToken() == Json.Reader.Token.START_OBJECT)
+    // {
+    //     while(r.nextToken() == Json.Reader.Token.NAME)
+    //     {
+    //         String name = r.getString();
+    //         r.nextToken();
+    //         if(name.equals("price"))
+    //             total += r.getDouble();
+    //         else
+    //             r.skipChildren();
+    //     }
+    // }
+    // r.close();
+    //
+    public static class Reader implements Closeable
+    {
+        public enum Token
+        {
+            START_OBJECT,
+            END_OBJECT,
+            START_LIST,
+            END_LIST,
+            NAME,
+            STRING,
+            LONG,
+            DOUBLE,
+            BOOL,
+            NULL
+        }
+
+        // What each open container expects next
+        static final byte OBJECT_FIRST = 0; // a name or '}'
+        static final byte OBJECT_COLON = 1; // a ':' and a value
+        static final byte OBJECT_NEXT = 2; // a ',' or '}'
+        static final byte LIST_FIRST = 3; // a value or ']'
+        static final byte LIST_NEXT = 4; // a ',' or ']'
+
+        Parser p;
+        Closeable source;
+        byte[] stack;
+        int depth;
+        boolean started;
+        Token token;
+        String string;
+        long longValue;
+        double doubleValue;
+        boolean boolValue;
+
+        Reader(Parser parser, Closeable src)
+        {
+            p = parser;
+            source = src;
+            stack = new byte[16];
+            depth = 0;
+            started = false;
+        }
+
+        // Advances to the next token. Returns null at the end of the document.
+        public Token nextToken()
+        {
+            if(depth == 0)
+            {
+                if(started)
+                    return token = null;
+                started = true;
+                return token = readValue();
+            }
+            byte state = stack[depth - 1];
+            p.skipWhitespace();
+            if(p.remaining() == 0)
+                throw new RuntimeException(state < LIST_FIRST ? "Expected a matching '}' in JSON file" : "Expected a matching ']' in JSON file");
+            char c = p.peek();
+            if(state < LIST_FIRST)
+            {
+                if(state == OBJECT_COLON)
+                {
+                    p.expect(":");
+                    stack[depth - 1] = OBJECT_NEXT;
+                    return token = readValue();
+                }
+                if(c == '}')
+                {
+                    p.advance(1);
+                    depth--;
+                    return token = Token.END_OBJECT;
+                }
+                if(state == OBJECT_NEXT)
+                {
+                    if(c != ',')
+                        throw new RuntimeException("Expected a ',' before the next field in JSON file");
+                    p.advance(1);
+                    p.skipWhitespace();
+                    if(p.remaining() == 0)
+                        throw new RuntimeException("Expected a matching '}' in JSON file");
+                    c = p.peek();
+                }
+                if(c != '"')
+                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + p.snippet(10));
+                string = JString.parseString(p);
+                stack[depth - 1] = OBJECT_COLON;
+                return token = Token.NAME;
+            }
+            else
+            {
+                if(c == ']')
+                {
+                    p.advance(1);
+                    depth--;
+                    return token = Token.END_LIST;
+                }
+                if(state == LIST_NEXT)
+                {
+                    if(c != ',')
+                        throw new RuntimeException("Expected a ',' or ']' in JSON file");
+                    p.advance(1);
+                    p.skipWhitespace();
+                    if(p.remaining() > 0 && p.peek() == ']')
+                        throw new RuntimeException("Unexpected ',' in JSON file");
+                }
+                stack[depth - 1] = LIST_NEXT;
+                return token = readValue();
+            }
+        }
+
+        Token readValue()
+        {
+            p.skipWhitespace();
+            if(p.remaining() == 0)
+                throw new RuntimeException("Unexpected end of JSON file");
+            char c = p.peek();
+            if(c == '"')
+            {
+                string = JString.parseString(p);
+                return Token.STRING;
+            }
+            else if(c == '{')
+            {
+                p.advance(1);
+                push(OBJECT_FIRST);
+                return Token.START_OBJECT;
+            }
+            else if(c == '[')
+            {
+                p.advance(1);
+                push(LIST_FIRST);
+                return Token.START_LIST;
+            }
+            else if(c == 't')
+            {
+                p.expect("true");
+                boolValue = true;
+                return Token.BOOL;
+            }
+            else if(c == 'f')
+            {
+                p.expect("false");
+                boolValue = false;
+                return Token.BOOL;
+            }
+            else if(c == 'n')
+            {
+                p.expect("null");
+                return Token.NULL;
+            }
+            else if((c >= '0' && c <= '9') || c == '-')
+            {
+                p.scanNumber();
+                if(p.isLong)
+                {
+                    longValue = p.longValue;
+                    return Token.LONG;
+                }
+                doubleValue = p.doubleValue;
+                return Token.DOUBLE;
+            }
+            else
+                throw new RuntimeException("Unexpected token at " + p.snippet(50));
+        }
+
+        void push(byte state)
+        {
+            if(depth == stack.length)
+            {
+                byte[] bigger = new byte[stack.length * 2];
+                System.arraycopy(stack, 0, bigger, 0, depth);
+                stack = bigger;
+            }
+            stack[depth++] = state;
+        }
+
+        public Token currentToken()
+        {
+            return token;
+        }
+
+        // The nesting depth of the current position. It is 0 outside the root value.
+        public int depth()
+        {
+            return depth;
+        }
+
+        // Returns the value of a STRING token or the name of a NAME token
+        public String getString()
+        {
+            if(token != Token.STRING && token != Token.NAME)
+                throw new RuntimeException("The current token is " + token + ", not a string");
+            return string;
+        }
+
+        public long getLong()
+        {
+            if(token != Token.LONG)
+                throw new RuntimeException("The current token is " + token + ", not an integer");
+            return longValue;
+        }
+
+        // The current integer as an int, short or byte. An integer that does not fit
+        // throws, instead of wrapping around as a cast would.
+        public int getInt()
+        {
+            return (int)getInteger(Integer.MIN_VALUE, Integer.MAX_VALUE, "an int");
+        }
+
+        public short getShort()
+        {
+            return (short)getInteger(Short.MIN_VALUE, Short.MAX_VALUE, "a short");
+        }
+
+        public byte getByte()
+        {
+            return (byte)getInteger(Byte.MIN_VALUE, Byte.MAX_VALUE, "a byte");
+        }
+
+        long getInteger(long min, long max, String type)
+        {
+            long v = getLong();
+            if(v < min || v > max)
+                throw new RuntimeException("The integer " + v + " does not fit in " + type);
+            return v;
+        }
+
+        public double getDouble()
+        {
+            if(token == Token.LONG)
+                return (double)longValue;
+            if(token != Token.DOUBLE)
+                throw new RuntimeException("The current token is " + token + ", not a number");
+            return doubleValue;
+        }
+
+        public boolean getBool()
+        {
+            if(token != Token.BOOL)
+                throw new RuntimeException("The current token is " + token + ", not a bool");
+            return boolValue;
+        }
+
+        // If the current token starts an object or list, skips to its matching end token
+        public void skipChildren()
+        {
+            if(token != Token.START_OBJECT && token != Token.START_LIST)
+                return;
+            int d = depth - 1;
+            while(depth > d)
+                nextToken();
+        }
+
+        // Builds a DOM node for the value that starts at the current token.
+        // Afterwards, the current token is the end of that value.
+        public Json readNode()
+        {
+            if(token == null)
+                throw new RuntimeException("There is no current token");
+            switch(token)
+            {
+                case START_OBJECT:
+                    p.retreat(1);
+                    depth--;
+                    token = Token.END_OBJECT;
+                    return JObject.parseObject(p);
+                case START_LIST:
+                    p.retreat(1);
+                    depth--;
+                    token = Token.END_LIST;
+                    return JList.parseList(p);
+                case STRING: return new JString(string);
+                case LONG: return new JLong(longValue);
+                case DOUBLE: return new JDouble(doubleValue);
+                case BOOL: return new JBool(boolValue);
+                case NULL: return new JNull();
+                default: throw new RuntimeException("The current token is " + token + ", not the start of a value");
+            }
+        }
+
+        public void close()
+        {
+            if(source == null)
+                return;
+            try
+            {
+                source.close();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // A non-blocking parser that is pushed its input a chunk at a time, as the chunks
+    // arrive, instead of pulling it from a stream. It never waits for input. A token that
+    // is split between chunks is kept until the rest of it arrives, so a server can parse
+    // many connections on a few threads, holding only their unfinished tokens.
+    //
+    // Given a sink, feed parses each chunk and passes every value that it completes to
+    // the sink. Without one, feed only takes the chunk, and nextToken returns its tokens
+    // one at a time, like Reader.nextToken, or null once it needs the next chunk:
+    //
+    // Json.PushParser p = new Json.PushParser(value -> handle(value));
+    // while(channel.read(buffer) >= 0)
+    // {
+    //     buffer.flip();
+    //     p.feed(buffer);
+    //     buffer.clear();
+    // }
+    // p.endOfInput();
+    //
+    // The input may hold any number of values one after another, as in JSON Lines.
+    // Like Reader, it is strict about commas.
+    public static class PushParser
+    {
+        // What each open container expects next
+        static final byte OBJECT_FIRST = 0; // a name or '}'
+        static final byte OBJECT_NAME = 1; // a name, after a ','
+        static final byte OBJECT_COLON = 2; // a ':'
+        static final byte OBJECT_VALUE = 3; // a value, after a ':'
+        static final byte OBJECT_NEXT = 4; // a ',' or '}'
+        static final byte LIST_FIRST = 5; // a value or ']'
+        static final byte LIST_VALUE = 6; // a value, after a ','
+        static final byte LIST_NEXT = 7; // a ',' or ']'
+
+        // The kinds of token that can be split between chunks
+        static final byte NONE = 0;
+        static final byte STRING = 1;
+        static final byte NUMBER = 2;
+        static final byte LITERAL = 3;
+
+        Consumer<Json> sink;
+        ByteBuffer input;
+        boolean ended;
+        byte[] stack;
+        int depth;
+
+        // The token in progress. The bytes of a string or number are collected in raw,
+        // then decoded in one go by tokens, so escapes and UTF-8 sequences may be split.
+        byte partial;
+        byte[] raw;
+        int count;
+        boolean escaped;
+        boolean isName;
+        String literal;
+        ByteParser tokens;
+
+        Reader.Token token;
+        String string;
+        long longValue;
+        double doubleValue;
+        boolean boolValue;
+
+        // The open containers and the names of their pending fields, for the sink
+        Json[] nodes;
+        String[] names;
+
+        public PushParser()
+        {
+            this(null, null);
+        }
+
+        public PushParser(Consumer<Json> sink)
+        {
+            this(sink, null);
+        }
+
+        public PushParser(Consumer<Json> sink, SymbolTable symbols)
+        {
+            this.sink = sink;
+            input = ByteBuffer.allocate(0);
+            stack = new byte[16];
+            raw = new byte[64];
+            tokens = new ByteParser(ByteBuffer.wrap(raw));
+            tokens.symbols = symbols;
+            if(sink != null)
+            {
+                nodes = new Json[16];
+                names = new String[16];
+            }
+        }
+
+        public void feed(byte[] b, int off, int len)
+        {
+            feed(ByteBuffer.wrap(b, off, len));
+        }
+
+        // Takes the bytes between the chunk's position and limit. With a sink, they are
+        // parsed before this returns. Without one, the chunk must be left alone until
+        // nextToken returns null, and the chunk's position shows how far it got.
+        public void feed(ByteBuffer chunk)
+        {
+            if(ended)
+                throw new RuntimeException("The input has already ended");
+            if(input.hasRemaining())
+                throw new RuntimeException("The previous chunk has not been parsed yet");
+            input = chunk;
+            if(sink != null)
+                drain();
+        }
+
+        // Says that no more chunks will come. With a sink, it passes on the last value,
+        // or throws if the input stopped inside one. Without one, nextToken returns the
+        // last tokens and then throws the same way.
+        public void endOfInput()
+        {
+            ended = true;
+            if(sink != null)
+                drain();
+        }
+
+        void drain()
+        {
+            Reader.Token t;
+            while((t = nextToken()) != null)
+            {
+                switch(t)
+                {
+                    case START_OBJECT: open(Json.newObject()); break;
+                    case START_LIST: open(Json.newList()); break;
+                    case END_OBJECT:
+                    case END_LIST:
+                        Json done = nodes[depth];
+                        nodes[depth] = null;
+                        if(depth == 0)
+                            sink.accept(done);
+                        break;
+                    case NAME: names[depth - 1] = string; break;
+                    case STRING: value(new JString(string)); break;
+                    case LONG: value(new JLong(longValue)); break;
+                    case DOUBLE: value(new JDouble(doubleValue)); break;
+                    case BOOL: value(new JBool(boolValue)); break;
+                    case NULL: value(new JNull()); break;
+                }
+            }
+        }
+
+        // Adds a container that was just opened to its parent, then makes it the current one
+        void open(Json node)
+        {
+            if(depth > 1)
+                attach(depth - 2, node);
+            if(depth > nodes.length)
+            {
+                nodes = Arrays.copyOf(nodes, stack.length);
+                names = Arrays.copyOf(names, stack.length);
+            }
+            nodes[depth - 1] = node;
+        }
+
+        void value(Json node)
+        {
+            if(depth == 0)
+                sink.accept(node);
+            else
+                attach(depth - 1, node);
+        }
+
+        void attach(int level, Json node)
+        {
+            Json parent = nodes[level];
+            if(parent instanceof JObject)
+            {
+                parent.add(names[level], node);
+                names[level] = null;
+            }
+            else
+                parent.add(node);
+        }
+
+        // Advances to the next token. Returns null when the chunk is used up, or at the
+        // end of the input after endOfInput.
+        public Reader.Token nextToken()
+        {
+            while(true)
+            {
+                if(partial != NONE)
+                    return finishToken() ? token : atEnd();
+                int i = input.position();
+                int end = input.limit();
+                while(i < end && (input.get(i) & 0xff) <= ' ')
+                    i++;
+                input.position(i);
+                if(i == end)
+                    return atEnd();
+                byte b = input.get(i);
+                byte state = depth == 0 ? LIST_VALUE : stack[depth - 1];
+                if(state < LIST_FIRST)
+                {
+                    if(state == OBJECT_COLON)
+                    {
+                        if(b != ':')
+                            throw new RuntimeException("Expected \":\", Got \"" + (char)(b & 0xff) + "\"");
+                        input.position(i + 1);
+                        stack[depth - 1] = OBJECT_VALUE;
+                        continue;
+                    }
+                    if(state != OBJECT_VALUE)
+                    {
+                        if(b == '}' && state != OBJECT_NAME)
+                        {
+                            input.position(i + 1);
+                            depth--;
+                            return token = Reader.Token.END_OBJECT;
+                        }
+                        if(state == OBJECT_NEXT)
+                        {
+                            if(b != ',')
+                                throw new RuntimeException("Expected a ',' before the next field in JSON file");
+                            input.position(i + 1);
+                            stack[depth - 1] = OBJECT_NAME;
+                            continue;
+                        }
+                        if(b != '"')
+                            throw new RuntimeException("Expected a '}' or a '\"'. Got " + (char)(b & 0xff));
+                        input.position(i + 1);
+                        startString(true);
+                        continue;
+                    }
+                    stack[depth - 1] = OBJECT_NEXT;
+                }
+                else if(depth > 0)
+                {
+                    if(b == ']')
+                    {
+                        if(state == LIST_VALUE)
+                            throw new RuntimeException("Unexpected ',' in JSON file");
+                        input.position(i + 1);
+                        depth--;
+                        return token = Reader.Token.END_LIST;
+                    }
+                    if(state == LIST_NEXT)
+                    {
+                        if(b != ',')
+                            throw new RuntimeException("Expected a ',' or ']' in JSON file");
+                        input.position(i + 1);
+                        stack[depth - 1] = LIST_VALUE;
+                        continue;
+                    }
+                    stack[depth - 1] = LIST_NEXT;
+                }
+                // A value starts here
+                input.position(i + 1);
+                if(b == '{')
+                {
+                    push(OBJECT_FIRST);
+                    return token = Reader.Token.START_OBJECT;
+                }
+                else if(b == '[')
+                {
+                    push(LIST_FIRST);
+                    return token = Reader.Token.START_LIST;
+                }
+                else if(b == '"')
+                    startString(false);
+                else if(b == 't' || b == 'f' || b == 'n')
+                {
+                    partial = LITERAL;
+                    literal = b == 't' ? "true" : b == 'f' ? "false" : "null";
+                    count = 1;
+                }
+                else if((b >= '0' && b <= '9') || b == '-')
+                {
+                    partial = NUMBER;
+                    raw[0] = b;
+                    count = 1;
+                }
+                else
+                {
+                    input.position(i);
+                    throw new RuntimeException("Unexpected token at " + (char)(b & 0xff));
+                }
+            }
+        }
+
+        void startString(boolean name)
+        {
+            partial = STRING;
+            isName = name;
+            escaped = false;
+            raw[0] = '"';
+            count = 1;
+        }
+
+        // Continues the token in progress with the current chunk. Returns false if the
+        // chunk runs out before the token ends.
+        boolean finishToken()
+        {
+            int i = input.position();
+            int end = input.limit();
+            if(partial == LITERAL)
+            {
+                int n = literal.length();
+                for(; count < n && i < end; count++, i++)
+                {
+                    if(input.get(i) != (byte)literal.charAt(count))
+                        throw new RuntimeException("Expected \"" + literal + "\", Got \"" + literal.substring(0, count) + (char)(input.get(i) & 0xff) + "\"");
+                }
+                input.position(i);
+                if(count < n)
+                    return false;
+                partial = NONE;
+                boolValue = literal.charAt(0) == 't';
+                token = literal.charAt(0) == 'n' ? Reader.Token.NULL : Reader.Token.BOOL;
+                return true;
+            }
+            if(partial == STRING)
+            {
+                boolean closed = false;
+                while(i < end && !closed)
+                {
+                    byte b = input.get(i++);
+                    if(escaped)
+                        escaped = false;
+                    else if(b == '\\')
+                        escaped = true;
+                    else if(b == '"')
+                        closed = true;
+                    put(b);
+                }
+                input.position(i);
+                if(!closed)
+                    return false;
+                partial = NONE;
+                decode();
+                string = JString.parseString(tokens);
+                if(isName)
+                {
+                    stack[depth - 1] = OBJECT_COLON;
+                    token = Reader.Token.NAME;
+                }
+                else
+                    token = Reader.Token.STRING;
+                return true;
+            }
+            byte b = 0;
+            while(i < end && (((b = input.get(i)) >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-'))
+            {
+                put(b);
+                i++;
+            }
+            input.position(i);
+            if(i == end && !ended)
+                return false;
+            partial = NONE;
+            // scanNumber also checks the byte after the number
+            if(i < end)
+                put(input.get(i));
+            decode();
+            tokens.scanNumber();
+            if(tokens.isLong)
+            {
+                longValue = tokens.longValue;
+                token = Reader.Token.LONG;
+            }
+            else
+            {
+                doubleValue = tokens.doubleValue;
+                token = Reader.Token.DOUBLE;
+            }
+            return true;
+        }
+
+        void put(byte b)
+        {
+            if(count == raw.length)
+                raw = Arrays.copyOf(raw, raw.length * 2);
+            raw[count++] = b;
+        }
+
+        // Points tokens at the bytes collected in raw
+        void decode()
+        {
+            if(tokens.buf.array() != raw)
+                tokens.buf = ByteBuffer.wrap(raw);
+            tokens.pos = 0;
+            tokens.limit = count;
+        }
+
+        // Called when the chunk is used up
+        Reader.Token atEnd()
+        {
+            if(!ended)
+                return token = null;
+            if(partial == STRING)
+                throw new RuntimeException("No closing \"");
+            if(partial != NONE)
+                throw new RuntimeException("Unexpected end of JSON file");
+            if(depth > 0)
+                throw new RuntimeException(stack[depth - 1] < LIST_FIRST ? "Expected a matching '}' in JSON file" : "Expected a matching ']' in JSON file");
+            return token = null;
+        }
+
+        void push(byte state)
+        {
+            if(depth == stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[depth++] = state;
+        }
+
+        public Reader.Token currentToken()
+        {
+            return token;
+        }
+
+        // The nesting depth of the current position. It is 0 between values.
+        public int depth()
+        {
+            return depth;
+        }
+
+        // Returns the value of a STRING token or the name of a NAME token
+        public String getString()
+        {
+            if(token != Reader.Token.STRING && token != Reader.Token.NAME)
+                throw new RuntimeException("The current token is " + token + ", not a string");
+            return string;
+        }
+
+        public long getLong()
+        {
+            if(token != Reader.Token.LONG)
+                throw new RuntimeException("The current token is " + token + ", not an integer");
+            return longValue;
+        }
+
+        public double getDouble()
+        {
+            if(token == Reader.Token.LONG)
+                return (double)longValue;
+            if(token != Reader.Token.DOUBLE)
+                throw new RuntimeException("The current token is " + token + ", not a number");
+            return doubleValue;
+        }
+
+        public boolean getBool()
+        {
+            if(token != Reader.Token.BOOL)
+                throw new RuntimeException("The current token is " + token + ", not a bool");
+            return boolValue;
+        }
+    }
+
+    // A streaming generator that writes JSON text without building a DOM. Commas and
+    // colons are inserted automatically. Here is an example:
+    //
+    // Json.JsonWriter w = Json.writer(out);
+    // w.startObject();
+    // w.name("atomic").value(atomic);
+    // w.name("peri").value(peri.marshal());
+    // w.name("ammo").startList();
+    // for(int i = 0; i < ammo.size(); i++)
+    //     w.value(ammo.get(i).marshal());
+    // w.endList();
+    // w.endObject();
+    // w.close();
+    //
+    public abstract static class JsonWriter implements Closeable, Flushable
+    {
+        static final int BUFFER_SIZE = 1 << 13;
+
+        // What each open container expects next
+        static final byte OBJECT_FIRST = 0; // a name or the end
+        static final byte OBJECT_VALUE = 1; // a value for the name just written
+        static final byte OBJECT_NEXT = 2; // another name or the end
+        static final byte LIST_FIRST = 3; // a value or the end
+        static final byte LIST_NEXT = 4; // another value or the end
+
+        byte[] stack;
+        int depth;
+        char[] digits; // where numbers are formatted
+
+        // Set for the writers that Json.writer makes, and reported with the size of the
+        // output when the writer is closed
+        Operation op;
+        long written;
+
+        JsonWriter()
+        {
+            stack = new byte[16];
+            depth = 0;
+            digits = new char[24];
+        }
+
+        // Forgets any open containers and buffered output, so the writer can be reused
+        void reset()
+        {
+            depth = 0;
+        }
+
+        abstract void put(char c);
+        abstract void put(String s);
+
+        void put(String s, int start, int end)
+        {
+            for(int i = start; i < end; i++)
+                put(s.charAt(i));
+        }
+
+        // Writes characters that are all below 0x80
+        void putAscii(char[] chars, int start, int end)
+        {
+            for(int i = start; i < end; i++)
+                put(chars[i]);
+        }
+
+        void putName(String name)
+        {
+            EncodedName e = EncodedName.lookup(name);
+            if(e == null)
+            {
+                JString.write(this, name);
+                put(':');
+            }
+            else
+                putEncoded(e);
+        }
+
+        void putEncoded(EncodedName e)
+        {
+            put(e.text);
+        }
+
+        void putLong(long val)
+        {
+            if(val == Long.MIN_VALUE)
+            {
+                put("-9223372036854775808");
+                return;
+            }
+            int i = digits.length;
+            long n = Math.abs(val);
+            do
+            {
+                digits[--i] = (char)('0' + n % 10);
+                n /= 10;
+            } while(n != 0);
+            if(val < 0)
+                digits[--i] = '-';
+            putAscii(digits, i, digits.length);
+        }
+
+        // Writes a double between 1e-3 and 1e7 with at most 15 significant digits, which
+        // covers most prices, scores and measurements, without making a String. At this
+        // precision only one decimal rounds to the double, so the digits are the shortest
+        // that read back as it. Double.toString gives the same digits on JDK 19 and later;
+        // older JDKs sometimes add one, as in 0.0020 for 2.0E-3, which reads back the same.
+        // Returns false for any other double.
+        boolean putShortDouble(double val)
+        {
+            double a = Math.abs(val);
+            if(!(a >= 1e-3 && a < 1e7))
+                return false;
+            int places = 14 - (int)Math.floor(Math.getExponent(a) * 0.30102999566398120);
+            double scaled = a * Parser.POW10[places];
+            if(scaled >= 1e15)
+            {
+                places--;
+                scaled = a * Parser.POW10[places];
+            }
+            double r = Math.rint(scaled);
+            if(r / Parser.POW10[places] != a)
+                return false;
+            long m = (long)r;
+            while(places > 1 && m % 10 == 0)
+            {
+                m /= 10;
+                places--;
+            }
+            int i = digits.length;
+            for(int j = 0; j < places; j++)
+            {
+                digits[--i] = (char)('0' + m % 10);
+                m /= 10;
+            }
+            digits[--i] = '.';
+            do
+            {
+                digits[--i] = (char)('0' + m % 10);
+                m /= 10;
+            } while(m != 0);
+            if(val < 0)
+                digits[--i] = '-';
+            putAscii(digits, i, digits.length);
+            return true;
+        }
+
+        // Sends any buffered output on to the target
+        abstract void flushBuffer();
+
+        abstract void closeTarget() throws IOException;
+
+        void push(byte state)
+        {
+            if(depth == stack.length)
+            {
+                byte[] bigger = new byte[stack.length * 2];
+                System.arraycopy(stack, 0, bigger, 0, depth);
+                stack = bigger;
+            }
+            stack[depth++] = state;
+        }
+
+        void beforeValue()
+        {
+            if(depth == 0)
+                return;
+            byte state = stack[depth - 1];
+            if(state == OBJECT_VALUE)
+                stack[depth - 1] = OBJECT_NEXT;
+            else if(state == LIST_FIRST)
+                stack[depth - 1] = LIST_NEXT;
+            else if(state == LIST_NEXT)
+                put(',');
+            else
+                throw new RuntimeException("Expected a name before the next value in an object");
+        }
+
+        public JsonWriter name(String name)
+        {
+            if(depth == 0 || stack[depth - 1] >= LIST_FIRST)
+                throw new RuntimeException("A name can only be written inside an object");
+            byte state = stack[depth - 1];
+            if(state == OBJECT_VALUE)
+                throw new RuntimeException("Expected a value after the name");
+            if(state == OBJECT_NEXT)
+                put(',');
+            putName(name);
+            stack[depth - 1] = OBJECT_VALUE;
+            return this;
+        }
+
+        public JsonWriter startObject()
+        {
+            beforeValue();
+            put('{');
+            push(OBJECT_FIRST);
+            return this;
+        }
+
+        public JsonWriter endObject()
+        {
+            if(depth == 0 || (stack[depth - 1] != OBJECT_FIRST && stack[depth - 1] != OBJECT_NEXT))
+                throw new RuntimeException("There is no object to end here");
+            put('}');
+            depth--;
+            return this;
+        }
+
+        public JsonWriter startList()
+        {
+            beforeValue();
+            put('[');
+            push(LIST_FIRST);
+            return this;
+        }
+
+        public JsonWriter endList()
+        {
+            if(depth == 0 || stack[depth - 1] < LIST_FIRST)
+                throw new RuntimeException("There is no list to end here");
+            put(']');
+            depth--;
+            return this;
+        }
+
+        public JsonWriter value(String val)
+        {
+            if(val == null)
+                return nullValue();
+            beforeValue();
+            JString.write(this, val);
+            return this;
+        }
+
+        public JsonWriter value(long val)
+        {
+            beforeValue();
+            putLong(val);
+            return this;
+        }
+
+        public JsonWriter value(double val)
+        {
+            beforeValue();
+            if(!putShortDouble(val))
+                put(Double.toString(val));
+            return this;
+        }
+
+        public JsonWriter value(boolean val)
+        {
+            beforeValue();
+            put(val ? "true" : "false");
+            return this;
+        }
+
+        public JsonWriter value(Json node)
+        {
+            if(node == null)
+                return nullValue();
+            node.write(this);
+            return this;
+        }
+
+        public JsonWriter nullValue()
+        {
+            beforeValue();
+            put("null");
+            return this;
+        }
+
+        public void flush()
+        {
+            flushBuffer();
+        }
+
+        public void close()
+        {
+            Operation o = op;
+            op = null;
+            try
+            {
+                flushBuffer();
+                closeTarget();
+            }
+            catch(IOException e)
+            {
+                throw Operation.fail(o, new RuntimeException(e));
+            }
+            catch(RuntimeException e)
+            {
+                throw Operation.fail(o, e);
+            }
+            if(o != null)
+                o.finish(written, null, null);
+        }
+    }
+
+    // Encodes UTF-8 into a fixed size buffer, which is drained into an OutputStream or
+    // a WritableByteChannel whenever it fills up
+    static class Utf8Writer extends JsonWriter
+    {
+        OutputStream out;
+        WritableByteChannel channel;
+        byte[] buf;
+        ByteBuffer view;
+        int len;
+        char high; // a high surrogate waiting for its pair
+
+        Utf8Writer(OutputStream o, WritableByteChannel ch, int size)
+        {
+            out = o;
+            channel = ch;
+            buf = new byte[size];
+            view = ByteBuffer.wrap(buf);
+            len = 0;
+            high = 0;
+        }
+
+        void reset()
+        {
+            super.reset();
+            len = 0;
+            high = 0;
+        }
+
+        void put(char c)
+        {
+            if(c < 0x80 && high == 0)
+            {
+                if(len == buf.length)
+                    flushBuffer();
+                buf[len++] = (byte)c;
+            }
+            else
+                putMultiByte(c);
+        }
+
+        void putMultiByte(char c)
+        {
+            if(buf.length - len < 4)
+                flushBuffer();
+            if(high != 0)
+            {
+                char h = high;
+                high = 0;
+                if(Character.isLowSurrogate(c))
+                {
+                    int cp = Character.toCodePoint(h, c);
+                    buf[len++] = (byte)(0xf0 | (cp >> 18));
+                    buf[len++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                    buf[len++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                    buf[len++] = (byte)(0x80 | (cp & 0x3f));
+                    return;
+                }
+                buf[len++] = '?';
+                put(c);
+                return;
+            }
+            if(c < 0x80)
+                buf[len++] = (byte)c;
+            else if(c < 0x800)
+            {
+                buf[len++] = (byte)(0xc0 | (c >> 6));
+                buf[len++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if(Character.isHighSurrogate(c))
+                high = c;
+            else if(Character.isLowSurrogate(c))
+                buf[len++] = '?';
+            else
+            {
+                buf[len++] = (byte)(0xe0 | (c >> 12));
+                buf[len++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buf[len++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+
+        void put(String s)
+        {
+            put(s, 0, s.length());
+        }
+
+        // Copies runs of ASCII straight into the buffer
+        void put(String s, int start, int end)
+        {
+            int i = start;
+            while(i < end)
+            {
+                char c = s.charAt(i);
+                if(c < 0x80 && high == 0)
+                {
+                    if(len == buf.length)
+                        flushBuffer();
+                    int stop = Math.min(end, i + buf.length - len);
+                    int n = len;
+                    while(i < stop && (c = s.charAt(i)) < 0x80)
+                    {
+                        buf[n++] = (byte)c;
+                        i++;
+                    }
+                    len = n;
+                }
+                else
+                {
+                    putMultiByte(c);
+                    i++;
+                }
+            }
+        }
+
+        void putAscii(char[] chars, int start, int end)
+        {
+            if(buf.length - len < end - start || high != 0)
+            {
+                super.putAscii(chars, start, end);
+                return;
+            }
+            for(int i = start; i < end; i++)
+                buf[len++] = (byte)chars[i];
+        }
+
+        void putEncoded(EncodedName e)
+        {
+            byte[] b = e.utf8;
+            if(buf.length - len < b.length || high != 0)
+            {
+                put(e.text);
+                return;
+            }
+            System.arraycopy(b, 0, buf, len, b.length);
+            len += b.length;
+        }
+
+        void flushBuffer()
+        {
+            try
+            {
+                if(out != null)
+                    out.write(buf, 0, len);
+                else
+                {
+                    view.clear();
+                    view.limit(len);
+                    while(view.hasRemaining())
+                        channel.write(view);
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            written += len;
+            len = 0;
+        }
+
+        public void flush()
+        {
+            flushBuffer();
+            if(out != null)
+            {
+                try
+                {
+                    out.flush();
+                }
+                catch(IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        void closeTarget() throws IOException
+        {
+            if(out != null)
+                out.close();
+            else
+                channel.close();
+        }
+    }
+
+    // Buffers characters for a Writer
+    static class CharWriter extends JsonWriter
+    {
+        Writer out;
+        char[] buf;
+        int len;
+
+        CharWriter(Writer o, int size)
+        {
+            out = o;
+            buf = new char[size];
+            len = 0;
+        }
+
+        void put(char c)
+        {
+            if(len == buf.length)
+                flushBuffer();
+            buf[len++] = c;
+        }
+
+        void put(String s)
+        {
+            put(s, 0, s.length());
+        }
+
+        void put(String s, int start, int end)
+        {
+            int n = end - start;
+            if(buf.length - len < n)
+                flushBuffer();
+            if(n > buf.length)
+            {
+                try
+                {
+                    out.write(s, start, n);
+                }
+                catch(IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+            s.getChars(start, end, buf, len);
+            len += n;
+        }
+
+        void putAscii(char[] chars, int start, int end)
+        {
+            int n = end - start;
+            if(buf.length - len < n)
+                flushBuffer();
+            System.arraycopy(chars, start, buf, len, n);
+            len += n;
+        }
+
+        void flushBuffer()
+        {
+            try
+            {
+                out.write(buf, 0, len);
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            written += len;
+            len = 0;
+        }
+
+        public void flush()
+        {
+            flushBuffer();
+            try
+            {
+                out.flush();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void closeTarget() throws IOException
+        {
+            out.close();
+        }
+    }
+
+    // Appends directly to a StringBuilder, for toString
+    static class BuilderWriter extends JsonWriter
+    {
+        StringBuilder sb;
+
+        BuilderWriter(StringBuilder b)
+        {
+            sb = b;
+        }
+
+        void put(char c)
+        {
+            sb.append(c);
+        }
+
+        void put(String s)
+        {
+            sb.append(s);
+        }
+
+        void put(String s, int start, int end)
+        {
+            sb.append(s, start, end);
+        }
+
+        void putAscii(char[] chars, int start, int end)
+        {
+            sb.append(chars, start, end - start);
+        }
+
+        void flushBuffer()
+        {
+        }
+
+        void closeTarget()
+        {
+        }
+    }
+
+    // A name as JsonWriter writes it, quoted, escaped and followed by a colon, as text
+    // and as UTF-8. Names repeat a lot, so recent ones are kept in a table shared by all
+    // writers, instead of being escaped again for every field. Any thread may replace
+    // an entry without locking. That is safe because the fields are final, so a writer
+    // that reads an entry from another thread sees it fully built, never half filled.
+    // A name is only encoded the second time in a row it misses its slot, so the many
+    // distinct names of one wide object don't push the common ones out.
+    static class EncodedName
+    {
+        static final int MAX_LENGTH = 64;
+        static final EncodedName[] table = new EncodedName[1 << 12];
+        static final String[] missed = new String[1 << 12];
+
+        final String name;
+        final String text;
+        final byte[] utf8;
+
+        EncodedName(String nam)
+        {
+            StringBuilder sb = new StringBuilder(nam.length() + 3);
+            JString.write(new BuilderWriter(sb), nam);
+            sb.append(':');
+            name = nam;
+            text = sb.toString();
+            utf8 = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static EncodedName lookup(String name)
+        {
+            if(name.length() > MAX_LENGTH)
+                return null;
+            int slot = name.hashCode() & (table.length - 1);
+            EncodedName e = table[slot];
+            if(e != null && (e.name == name || e.name.equals(name)))
+                return e;
+            String last = missed[slot];
+            if(last == null || !last.equals(name))
+            {
+                missed[slot] = name;
+                return null;
+            }
+            e = new EncodedName(name);
+            table[slot] = e;
+            return e;
+        }
+    }
+
+    // Receives a report of each call to parse, load, toString, save and their variants
+    // (see Operation.kind), once setListener installs it, to show where the time spent
+    // on JSON goes. Until then, the only cost of reporting is a read of one volatile
+    // field per call. Reports come on the thread that made the call, so a listener
+    // must be thread safe and quick. Metrics is a listener that keeps totals. On JDK 11
+    // and later, a listener can also record each report as a Flight Recorder event:
+    //
+    // class JsonEvent extends jdk.jfr.Event
+    // {
+    //     String kind;
+    //     String path;
+    //     long size;
+    //     int nodes;
+    //     long nanos;
+    // }
+    //
+    // Json.setListener(op ->
+    // {
+    //     JsonEvent e = new JsonEvent();
+    //     if(e.isEnabled())
+    //     {
+    //         e.kind = op.kind();
+    //         e.path = op.path();
+    //         e.size = op.size();
+    //         e.nodes = op.nodes();
+    //         e.nanos = op.nanos();
+    //         e.commit();
+    //     }
+    // });
+    //
+    public interface Listener
+    {
+        void report(Operation op);
+    }
+
+    // One call to parse, load, toString or save, as reported to a Listener
+    public static class Operation
+    {
+        static volatile Listener listener;
+
+        Listener target;
+        String kind;
+        String path;
+        long start;
+        long nanos;
+        long size;
+        Json node;
+        RuntimeException error;
+        int nodes;
+        int depth;
+        boolean walked;
+
+        Operation(Listener l, String k, String p)
+        {
+            target = l;
+            kind = k;
+            path = p;
+            start = System.nanoTime();
+        }
+
+        // Returns null when there is no listener, which makes the rest free
+        static Operation start(String kind, String path)
+        {
+            Listener l = listener;
+            return l == null ? null : new Operation(l, kind, path);
+        }
+
+        static Json done(Operation op, long size, Json node)
+        {
+            if(op != null)
+                op.finish(size, node, null);
+            return node;
+        }
+
+        static RuntimeException fail(Operation op, RuntimeException e)
+        {
+            if(op != null)
+                op.finish(0, null, e);
+            return e;
+        }
+
+        void finish(long sz, Json n, RuntimeException e)
+        {
+            nanos = System.nanoTime() - start;
+            size = sz;
+            node = n;
+            error = e;
+            target.report(this);
+        }
+
+        // The call that was made: "parse", "load", "toString", "save", "parseIndexed",
+        // "parseParallel", "parseLazy", "loadMapped", "parseTape", "loadTape",
+        // "parseLines", "loadLines", "toBinary", "parseBinary", "saveBinary",
+        // "loadBinary", or "writer" for a writer from Json.writer when it is closed
+        public String kind()
+        {
+            return kind;
+        }
+
+        // The file that was loaded or saved, or null
+        public String path()
+        {
+            return path;
+        }
+
+        // The size of the text in bytes, or in chars for a String. It is 0 after an error.
+        public long size()
+        {
+            return size;
+        }
+
+        public long nanos()
+        {
+            return nanos;
+        }
+
+        // The exception that the call threw, or null if it succeeded
+        public RuntimeException error()
+        {
+            return error;
+        }
+
+        // The number of nodes in the tree that was parsed or written. They are only
+        // counted if this is called, and lazy nodes that were never built count as one.
+        public int nodes()
+        {
+            walk();
+            return nodes;
+        }
+
+        // How deeply objects and lists nest in the tree. It is 0 for a single value.
+        public int depth()
+        {
+            walk();
+            return depth;
+        }
+
+        void walk()
+        {
+            if(walked)
+                return;
+            walked = true;
+            if(node != null)
+                walk(node, 0);
+        }
+
+        void walk(Json n, int level)
+        {
+            if(n instanceof JTape)
+            {
+                JTape t = (JTape)n;
+                walk(t.tape, t.tape.tape(), t.at, level);
+                return;
+            }
+            nodes++;
+            if(n instanceof JFrozen || (n instanceof JLazy && ((JLazy)n).node != null))
+                n = n.resolve();
+            if(n instanceof JObject)
+            {
+                depth = Math.max(depth, level + 1);
+                ArrayList<NameVal> fields = ((JObject)n).fields;
+                for(int i = 0; i < fields.size(); i++)
+                    walk(fields.get(i).value, level + 1);
+            }
+            else if(n instanceof JList)
+            {
+                depth = Math.max(depth, level + 1);
+                JList list = (JList)n;
+                if(list.list == null)
+                    nodes += list.count;
+                else
+                {
+                    for(int i = 0; i < list.list.size(); i++)
+                        walk(list.list.get(i), level + 1);
+                }
+            }
+        }
+
+        // Counts a value on a tape without making nodes for it
+        void walk(Tape t, ByteBuffer b, int at, int level)
+        {
+            nodes++;
+            byte tag = b.get(at);
+            if(tag != Tape.OBJECT && tag != Tape.LIST)
+                return;
+            depth = Math.max(depth, level + 1);
+            int count = b.getInt(at + 1);
+            int table = b.getInt(at + 5);
+            for(int i = 0; i < count; i++)
+            {
+                int pos = b.getInt(table + 4 * i);
+                walk(t, b, tag == Tape.OBJECT ? t.end(b, pos) : pos, level + 1);
+            }
+        }
+    }
+
+    // A listener that keeps totals for each kind of operation: how many there were,
+    // their total size and time, from which throughput follows, and a histogram of
+    // their sizes. It also counts failures by the type of error. Any number of
+    // threads may report to it at once.
+    public static class Metrics implements Listener
+    {
+        static class Totals
+        {
+            LongAdder count = new LongAdder();
+            LongAdder size = new LongAdder();
+            LongAdder nanos = new LongAdder();
+            // Bucket i counts sizes below 2 to the power i, and at least half that
+            LongAdder[] sizes = new LongAdder[64];
+
+            Totals()
+            {
+                for(int i = 0; i < sizes.length; i++)
+                    sizes[i] = new LongAdder();
+            }
+        }
+
+        ConcurrentHashMap<String, Totals> totals = new ConcurrentHashMap<String, Totals>();
+        ConcurrentHashMap<String, LongAdder> failures = new ConcurrentHashMap<String, LongAdder>();
+
+        public void report(Operation op)
+        {
+            if(op.error() != null)
+            {
+                // Errors from I/O are wrapped, so the cause tells more
+                Throwable e = op.error().getCause() != null ? op.error().getCause() : op.error();
+                failures.computeIfAbsent(e.getClass().getName(), k -> new LongAdder()).increment();
+                return;
+            }
+            Totals t = totals.computeIfAbsent(op.kind(), k -> new Totals());
+            t.count.increment();
+            t.size.add(op.size());
+            t.nanos.add(op.nanos());
+            t.sizes[64 - Long.numberOfLeadingZeros(op.size())].increment();
+        }
+
+        Totals totals(String kind)
+        {
+            Totals t = totals.get(kind);
+            return t != null ? t : new Totals();
+        }
+
+        // The number of operations of a kind that succeeded
+        public long count(String kind)
+        {
+            return totals(kind).count.sum();
+        }
+
+        public long size(String kind)
+        {
+            return totals(kind).size.sum();
+        }
+
+        public long nanos(String kind)
+        {
+            return totals(kind).nanos.sum();
+        }
+
+        // Bytes, or chars, per second over every operation of a kind
+        public double throughput(String kind)
+        {
+            Totals t = totals(kind);
+            long nanos = t.nanos.sum();
+            return nanos == 0 ? 0.0 : t.size.sum() * 1e9 / nanos;
+        }
+
+        // Element i is the number of operations of a kind whose size was below 2 to the
+        // power i, and at least half that. Element 0 counts those of size 0.
+        public long[] sizes(String kind)
+        {
+            LongAdder[] sizes = totals(kind).sizes;
+            long[] counts = new long[sizes.length];
+            for(int i = 0; i < sizes.length; i++)
+                counts[i] = sizes[i].sum();
+            return counts;
+        }
+
+        // The number of failures, by the class name of the error
+        public Map<String, Long> failures()
+        {
+            TreeMap<String, Long> counts = new TreeMap<String, Long>();
+            for(Map.Entry<String, LongAdder> e : failures.entrySet())
+                counts.put(e.getKey(), e.getValue().sum());
+            return counts;
+        }
+    }
+
+    // Writes nodes as JSON text, keeping its builder and buffers from one call to the
+    // next instead of allocating a writer and its buffer for each message. Buffers that
+    // grew past MAX_KEPT for a large document are dropped afterwards. A serializer is
+    // not thread safe; local returns one for the current thread.
+    public static class Serializer
+    {
+        static final int MAX_KEPT = 1 << 16;
+        static final ThreadLocal<Serializer> LOCAL = ThreadLocal.withInitial(Serializer::new);
+
+        StringBuilder sb;
+        BuilderWriter text;
+        Utf8Writer utf8;
+        ByteArrayOutputStream bytes;
+
+        public Serializer()
+        {
+            sb = new StringBuilder();
+            text = new BuilderWriter(sb);
+            utf8 = new Utf8Writer(null, null, JsonWriter.BUFFER_SIZE);
+            bytes = new ByteArrayOutputStream();
+        }
+
+        public static Serializer local()
+        {
+            return LOCAL.get();
+        }
+
+        public String toString(Json node)
+        {
+            sb.setLength(0);
+            text.reset();
+            node.write(text);
+            String s = sb.toString();
+            reset();
+            return s;
+        }
+
+        // Returns the node as UTF-8
+        public byte[] toBytes(Json node)
+        {
+            bytes.reset();
+            write(node, bytes);
+            byte[] b = bytes.toByteArray();
+            reset();
+            return b;
+        }
+
+        public void write(Json node, OutputStream out)
+        {
+            utf8.reset();
+            utf8.out = out;
+            try
+            {
+                node.write(utf8);
+                utf8.flush();
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        public void write(Json node, WritableByteChannel channel)
+        {
+            utf8.reset();
+            utf8.channel = channel;
+            try
+            {
+                node.write(utf8);
+                utf8.flush();
+            }
+            finally
+            {
+                release();
+            }
+        }
+
+        // Drops the destination and any unwritten bytes, even after a failed write, so
+        // that they don't end up in the next write or keep the stream reachable
+        void release()
+        {
+            utf8.out = null;
+            utf8.channel = null;
+            utf8.reset();
+        }
+
+        public void reset()
+        {
+            if(sb.capacity() > MAX_KEPT)
+            {
+                sb = new StringBuilder();
+                text = new BuilderWriter(sb);
+            }
+            if(bytes.size() > MAX_KEPT)
+                bytes = new ByteArrayOutputStream();
+        }
+    }
+
+    // Writes nodes in a compact binary form, for passing trees between programs that
+    // both use this library, without rendering and parsing text. Each node is a tag
+    // byte and its contents. Longs are zigzag varints, doubles are their 8 IEEE 754
+    // bytes, and strings are a varint length and then each char as UTF-8 would encode
+    // it alone, so that surrogates survive whether they are paired or not, as in
+    // DataOutput.writeUTF. Objects and lists start with
+    // their size, and packed lists stay packed. The first time a field name appears
+    // it is written in full, and later it is written as its position in a table of
+    // names, which the reader builds the same way. The table spans every node in the
+    // stream, so a stream of similar messages pays for each name once. Node types
+    // round-trip exactly, so a long stays a long, and a double keeps all of its bits.
+    // Read the stream back with BinaryReader.
+    public static class BinaryWriter implements Closeable, Flushable
+    {
+        static final byte[] MAGIC = { 'e', 'z', 'J', 1 };
+
+        static final byte NULL = 0;
+        static final byte FALSE = 1;
+        static final byte TRUE = 2;
+        static final byte LONG = 3;
+        static final byte DOUBLE = 4;
+        static final byte STRING = 5;
+        static final byte OBJECT = 6;
+        static final byte LIST = 7;
+        static final byte LONGS = 8;
+        static final byte DOUBLES = 9;
+
+        // Bounds on the table of names, which the reader applies the same way
+        static final int MAX_NAMES = 1 << 16;
+        static final int MAX_NAME_LENGTH = 256;
+
+        OutputStream out;
+        byte[] buf;
+        int len;
+        HashMap<String, Integer> names;
+        long written; // bytes handed to out so far
+
+        public BinaryWriter(OutputStream out)
+        {
+            this.out = out;
+            buf = new byte[JsonWriter.BUFFER_SIZE];
+            names = new HashMap<String, Integer>();
+            System.arraycopy(MAGIC, 0, buf, 0, MAGIC.length);
+            len = MAGIC.length;
+        }
+
+        public void write(Json node)
+        {
+            if(node instanceof JTape)
+            {
+                JTape t = (JTape)node;
+                write(t.tape, t.tape.tape(), t.at);
+                return;
+            }
+            node = node.resolve();
+            if(node instanceof JObject)
+            {
+                ArrayList<NameVal> fields = ((JObject)node).fields;
+                reserve(11);
+                buf[len++] = OBJECT;
+                putVarint(fields.size());
+                for(int i = 0; i < fields.size(); i++)
+                {
+                    NameVal nv = fields.get(i);
+                    putName(nv.name);
+                    write(nv.value);
+                }
+            }
+            else if(node instanceof JList)
+            {
+                JList list = (JList)node;
+                reserve(11);
+                if(list.longs != null)
+                {
+                    buf[len++] = LONGS;
+                    putVarint(list.count);
+                    for(int i = 0; i < list.count; i++)
+                    {
+                        reserve(10);
+                        putVarint((list.longs[i] << 1) ^ (list.longs[i] >> 63));
+                    }
+                }
+                else if(list.doubles != null)
+                {
+                    buf[len++] = DOUBLES;
+                    putVarint(list.count);
+                    for(int i = 0; i < list.count; i++)
+                    {
+                        reserve(8);
+                        putDouble(list.doubles[i]);
+                    }
+                }
+                else
+                {
+                    buf[len++] = LIST;
+                    putVarint(list.list.size());
+                    for(int i = 0; i < list.list.size(); i++)
+                        write(list.list.get(i));
+                }
+            }
+            else if(node instanceof JString)
+            {
+                reserve(1);
+                buf[len++] = STRING;
+                putString(((JString)node).value);
+            }
+            else if(node instanceof JLong)
+            {
+                long v = ((JLong)node).value;
+                reserve(11);
+                buf[len++] = LONG;
+                putVarint((v << 1) ^ (v >> 63));
+            }
+            else if(node instanceof JDouble)
+            {
+                reserve(9);
+                buf[len++] = DOUBLE;
+                putDouble(((JDouble)node).value);
+            }
+            else if(node instanceof JBool)
+            {
+                reserve(1);
+                buf[len++] = ((JBool)node).value ? TRUE : FALSE;
+            }
+            else if(node instanceof JNull)
+            {
+                reserve(1);
+                buf[len++] = NULL;
+            }
+            else
+                throw new RuntimeException("Cannot write a " + node.getClass().getSimpleName() + " as binary");
+        }
+
+        // Writes a value on a tape as it is, without making nodes for it
+        void write(Tape t, ByteBuffer b, int at)
+        {
+            byte tag = b.get(at);
+            reserve(11);
+            switch(tag)
+            {
+                case Tape.OBJECT:
+                case Tape.LIST:
+                {
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    buf[len++] = tag == Tape.OBJECT ? OBJECT : LIST;
+                    putVarint(count);
+                    for(int i = 0; i < count; i++)
+                    {
+                        int pos = b.getInt(table + 4 * i);
+                        if(tag == Tape.OBJECT)
+                        {
+                            putName(t.string(b, pos));
+                            pos = t.end(b, pos);
+                        }
+                        write(t, b, pos);
+                    }
+                    break;
+                }
+                case Tape.STRING:
+                    buf[len++] = STRING;
+                    putString(t.string(b, at));
+                    break;
+                case Tape.LONG:
+                {
+                    long v = b.getLong(at + 1);
+                    buf[len++] = LONG;
+                    putVarint((v << 1) ^ (v >> 63));
+                    break;
+                }
+                case Tape.DOUBLE:
+                    buf[len++] = DOUBLE;
+                    putDouble(b.getDouble(at + 1));
+                    break;
+                case Tape.TRUE: buf[len++] = TRUE; break;
+                case Tape.FALSE: buf[len++] = FALSE; break;
+                default: buf[len++] = NULL; break;
+            }
+        }
+
+        // A known name is written as its position in the table plus one, and a new
+        // one as 0 followed by the name.
+        void putName(String name)
+        {
+            reserve(5);
+            Integer known = names.get(name);
+            if(known != null)
+            {
+                putVarint(known + 1);
+                return;
+            }
+            buf[len++] = 0;
+            putString(name);
+            if(names.size() < MAX_NAMES && name.length() <= MAX_NAME_LENGTH)
+                names.put(name, names.size());
+        }
+
+        // The number of bytes that the chars of s take
+        static int encodedLength(String s)
+        {
+            int n = s.length();
+            int size = n;
+            for(int i = 0; i < n; i++)
+            {
+                char c = s.charAt(i);
+                if(c >= 0x80)
+                    size += c < 0x800 ? 1 : 2;
+            }
+            return size;
+        }
+
+        // Writes the length in bytes, then the chars
+        void putString(String s)
+        {
+            int n = s.length();
+            int size = encodedLength(s);
+            reserve(5 + size);
+            putVarint(size);
+            for(int i = 0; i < n; i++)
+            {
+                char c = s.charAt(i);
+                if(c < 0x80)
+                    buf[len++] = (byte)c;
+                else if(c < 0x800)
+                {
+                    buf[len++] = (byte)(0xc0 | (c >> 6));
+                    buf[len++] = (byte)(0x80 | (c & 0x3f));
+                }
+                else
+                {
+                    buf[len++] = (byte)(0xe0 | (c >> 12));
+                    buf[len++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buf[len++] = (byte)(0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        void putVarint(long v)
+        {
+            while((v & ~0x7fL) != 0)
+            {
+                buf[len++] = (byte)(0x80 | (v & 0x7f));
+                v >>>= 7;
+            }
+            buf[len++] = (byte)v;
+        }
+
+        void putDouble(double d)
+        {
+            long bits = Double.doubleToRawLongBits(d);
+            for(int i = 0; i < 8; i++)
+            {
+                buf[len++] = (byte)bits;
+                bits >>>= 8;
+            }
+        }
+
+        // Makes room for n more bytes, flushing the buffer or growing it
+        void reserve(int n)
+        {
+            if(len + n <= buf.length)
+                return;
+            flushBuffer();
+            if(n > buf.length)
+                buf = new byte[n];
+        }
+
+        void flushBuffer()
+        {
+            try
+            {
+                out.write(buf, 0, len);
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            written += len;
+            len = 0;
+        }
+
+        public void flush()
+        {
+            flushBuffer();
+            try
+            {
+                out.flush();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void close()
+        {
+            flush();
+            try
+            {
+                out.close();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Reads the nodes that a BinaryWriter wrote, one at a time, from a stream or an array
+    public static class BinaryReader implements Closeable
+    {
+        InputStream in;
+        byte[] buf;
+        int pos;
+        int limit;
+        String[] names;
+        int nameCount;
+        char[] chars;
+
+        public BinaryReader(InputStream in)
+        {
+            this(in, new byte[JsonWriter.BUFFER_SIZE], 0, 0);
+        }
+
+        public BinaryReader(byte[] b)
+        {
+            this(null, b, 0, b.length);
+        }
+
+        BinaryReader(InputStream in, byte[] b, int start, int end)
+        {
+            this.in = in;
+            buf = b;
+            pos = start;
+            limit = end;
+            names = new String[64];
+            chars = new char[64];
+            if(!fill(BinaryWriter.MAGIC.length))
+                throw new RuntimeException("Not a binary JSON stream");
+            for(int i = 0; i < BinaryWriter.MAGIC.length; i++)
+            {
+                if(buf[pos + i] != BinaryWriter.MAGIC[i])
+                    throw new RuntimeException("Not a binary JSON stream");
+            }
+            pos += BinaryWriter.MAGIC.length;
+        }
+
+        // Returns the next node, or null at the end of the stream
+        public Json read()
+        {
+            if(!fill(1))
+                return null;
+            return readNode();
+        }
+
+        Json readNode()
+        {
+            byte tag = take(1);
+            switch(tag)
+            {
+                case BinaryWriter.NULL: return new JNull();
+                case BinaryWriter.FALSE: return new JBool(false);
+                case BinaryWriter.TRUE: return new JBool(true);
+                case BinaryWriter.LONG: return new JLong(readZigzag());
+                case BinaryWriter.DOUBLE: return new JDouble(readDouble());
+                case BinaryWriter.STRING: return new JString(readString());
+                case BinaryWriter.OBJECT:
+                {
+                    JObject ob = new JObject();
+                    int n = readSize();
+                    ob.fields.ensureCapacity(Math.min(n, 1024));
+                    for(int i = 0; i < n; i++)
+                    {
+                        String name = readName();
+                        ob.add(name, readNode());
+                    }
+                    return ob;
+                }
+                case BinaryWriter.LIST:
+                {
+                    JList list = new JList();
+                    int n = readSize();
+                    list.list.ensureCapacity(Math.min(n, 1024));
+                    for(int i = 0; i < n; i++)
+                        list.list.add(readNode());
+                    return list;
+                }
+                case BinaryWriter.LONGS:
+                {
+                    JList list = new JList();
+                    int n = readSize();
+                    list.packLongs(Math.min(Math.max(n, JList.PACKED_CAPACITY), 1024));
+                    for(int i = 0; i < n; i++)
+                        list.addLong(readZigzag());
+                    return list;
+                }
+                case BinaryWriter.DOUBLES:
+                {
+                    JList list = new JList();
+                    int n = readSize();
+                    list.packDoubles(Math.min(Math.max(n, JList.PACKED_CAPACITY), 1024));
+                    for(int i = 0; i < n; i++)
+                        list.addDouble(readDouble());
+                    return list;
+                }
+                default: throw new RuntimeException("Unknown tag " + tag + " in binary JSON");
+            }
+        }
+
+        String readName()
+        {
+            int ref = readSize();
+            if(ref > 0)
+            {
+                if(ref > nameCount)
+                    throw new RuntimeException("Unknown name reference in binary JSON");
+                return names[ref - 1];
+            }
+            String name = readString();
+            if(nameCount < BinaryWriter.MAX_NAMES && name.length() <= BinaryWriter.MAX_NAME_LENGTH)
+            {
+                if(nameCount == names.length)
+                    names = Arrays.copyOf(names, nameCount * 2);
+                names[nameCount++] = name;
+            }
+            return name;
+        }
+
+        String readString()
+        {
+            int size = readSize();
+            if(size > chars.length)
+                chars = new char[Math.max(size, chars.length * 2)];
+            char[] out = chars;
+            int n = 0;
+            int end = 0;
+            while(size > 0)
+            {
+                // Decode what is buffered, stopping before a sequence that is cut off
+                if(!fill(Math.min(size, 3)))
+                    throw new RuntimeException("Unexpected end of binary JSON");
+                end = pos + Math.min(size, limit - pos);
+                int start = pos;
+                int i = pos;
+                while(i < end)
+                {
+                    int b = buf[i];
+                    if(b >= 0)
+                    {
+                        out[n++] = (char)b;
+                        i++;
+                    }
+                    else if((b & 0xe0) == 0xc0 && i + 1 < end)
+                    {
+                        out[n++] = (char)(((b & 0x1f) << 6) | (buf[i + 1] & 0x3f));
+                        i += 2;
+                    }
+                    else if((b & 0xf0) == 0xe0 && i + 2 < end)
+                    {
+                        out[n++] = (char)(((b & 0x0f) << 12) | ((buf[i + 1] & 0x3f) << 6) | (buf[i + 2] & 0x3f));
+                        i += 3;
+                    }
+                    else if((b & 0xe0) != 0xc0 && (b & 0xf0) != 0xe0)
+                        throw new RuntimeException("Invalid UTF-8 in binary JSON");
+                    else
+                        break;
+                }
+                if(i == start)
+                    throw new RuntimeException("Invalid UTF-8 in binary JSON");
+                size -= i - start;
+                pos = i;
+            }
+            return new String(out, 0, n);
+        }
+
+        int readSize()
+        {
+            long v = readVarint();
+            if(v < 0 || v > Integer.MAX_VALUE)
+                throw new RuntimeException("Invalid size in binary JSON");
+            return (int)v;
+        }
+
+        long readZigzag()
+        {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readVarint()
+        {
+            long v = 0;
+            for(int shift = 0; shift < 64; shift += 7)
+            {
+                byte b = take(1);
+                v |= (long)(b & 0x7f) << shift;
+                if(b >= 0)
+                    return v;
+            }
+            throw new RuntimeException("Invalid varint in binary JSON");
+        }
+
+        double readDouble()
+        {
+            take(8);
+            long bits = 0;
+            for(int i = 7; i >= 0; i--)
+                bits = (bits << 8) | (buf[pos - 8 + i] & 0xff);
+            return Double.longBitsToDouble(bits);
+        }
+
+        // Moves past n bytes and returns the first one
+        byte take(int n)
+        {
+            if(!fill(n))
+                throw new RuntimeException("Unexpected end of binary JSON");
+            byte b = buf[pos];
+            pos += n;
+            return b;
+        }
+
+        // Makes at least n bytes available past pos, if the stream has that many
+        boolean fill(int n)
+        {
+            if(limit - pos >= n)
+                return true;
+            if(in == null)
+                return false;
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+            try
+            {
+                while(limit < n)
+                {
+                    int got = in.read(buf, limit, buf.length - limit);
+                    if(got < 0)
+                        return false;
+                    limit += got;
+                }
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+
+        public void close()
+        {
+            if(in == null)
+                return;
+            try
+            {
+                in.close();
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // A document stored as a tape of bytes in a direct ByteBuffer, outside the Java
+    // heap, instead of as a tree of nodes. A large reference document then costs the
+    // garbage collector one object instead of millions. close drops the tape's buffer,
+    // after which its nodes throw when used; the memory itself is freed when the next
+    // garbage collection collects the buffer. root returns the root as a Json node, whose
+    // accessors read the tape in place. Each node they return is a small view of a
+    // position on the tape, made on demand. A tape is read-only, any number of
+    // threads can read it at once, and its text is checked as strictly as Reader
+    // checks it. Since ByteBuffer positions are ints, a tape holds up to 2 GB.
+    //
+    // Each value on the tape is a tag byte and its contents. Longs and doubles take 8
+    // bytes, and strings an int length and their chars encoded as in BinaryWriter.
+    // Objects and lists have a header with their size, the position of a table that
+    // follows their items, and the position of their end. The table holds the
+    // position of each item, or of each field's name, which its value follows.
+    // Objects with more than JObject.INDEX_THRESHOLD fields also get a hash index
+    // like JObject's, so that lookups by name take constant time.
+    public static class Tape implements Closeable
+    {
+        static final byte NULL = 0;
+        static final byte FALSE = 1;
+        static final byte TRUE = 2;
+        static final byte LONG = 3;
+        static final byte DOUBLE = 4;
+        static final byte STRING = 5;
+        static final byte OBJECT = 6;
+        static final byte LIST = 7;
+
+        // A tag, the number of items, the position of the table, and the end
+        static final int HEADER = 13;
+
+        ByteBuffer buf;
+        int size;
+
+        Tape(Reader r, int capacity)
+        {
+            buf = ByteBuffer.allocateDirect(Math.max(capacity, 1024)).order(ByteOrder.LITTLE_ENDIAN);
+            try
+            {
+                build(r);
+            }
+            finally
+            {
+                r.close();
+            }
+        }
+
+        void build(Reader r)
+        {
+            // The positions of the items of the open containers, and for objects the
+            // names of their fields
+            int[] items = new int[64];
+            String[] names = new String[64];
+            int used = 0;
+            // The header position of each open container, and where its items start
+            int[] open = new int[16];
+            int[] first = new int[16];
+            int depth = 0;
+            Reader.Token t;
+            while((t = r.nextToken()) != null)
+            {
+                if(t == Reader.Token.END_OBJECT || t == Reader.Token.END_LIST)
+                {
+                    depth--;
+                    finish(open[depth], items, names, first[depth], used);
+                    Arrays.fill(names, first[depth], used, null);
+                    used = first[depth];
+                    continue;
+                }
+                boolean field = t == Reader.Token.NAME;
+                if(field || (depth > 0 && buf.get(open[depth - 1]) == LIST))
+                {
+                    if(used == items.length)
+                    {
+                        items = Arrays.copyOf(items, used * 2);
+                        names = Arrays.copyOf(names, used * 2);
+                    }
+                    names[used] = field ? r.getString() : null;
+                    items[used++] = size;
+                }
+                switch(t)
+                {
+                    case START_OBJECT:
+                    case START_LIST:
+                        if(depth == open.length)
+                        {
+                            open = Arrays.copyOf(open, depth * 2);
+                            first = Arrays.copyOf(first, depth * 2);
+                        }
+                        open[depth] = size;
+                        first[depth++] = used;
+                        reserve(HEADER);
+                        buf.put(size, t == Reader.Token.START_OBJECT ? OBJECT : LIST);
+                        size += HEADER;
+                        break;
+                    case NAME:
+                    case STRING:
+                        putString(r.getString());
+                        break;
+                    case LONG:
+                        reserve(9);
+                        buf.put(size, LONG);
+                        buf.putLong(size + 1, r.getLong());
+                        size += 9;
+                        break;
+                    case DOUBLE:
+                        reserve(9);
+                        buf.put(size, DOUBLE);
+                        buf.putDouble(size + 1, r.getDouble());
+                        size += 9;
+                        break;
+                    case BOOL:
+                        reserve(1);
+                        buf.put(size++, r.getBool() ? TRUE : FALSE);
+                        break;
+                    default:
+                        reserve(1);
+                        buf.put(size++, NULL);
+                        break;
+                }
+            }
+        }
+
+        // Writes the table of a container whose items are items[from] to items[to - 1],
+        // and fills in its header
+        void finish(int at, int[] items, String[] names, int from, int to)
+        {
+            int count = to - from;
+            int table = size;
+            reserve(4 * count);
+            for(int i = from; i < to; i++)
+            {
+                buf.putInt(size, items[i]);
+                size += 4;
+            }
+            if(buf.get(at) == OBJECT && count > JObject.INDEX_THRESHOLD)
+            {
+                int capacity = 16;
+                while(capacity < count * 2)
+                    capacity *= 2;
+                reserve(4 + 4 * capacity);
+                buf.putInt(size, capacity);
+                int slots = size + 4;
+                for(int i = 0; i < capacity; i++)
+                    buf.putInt(slots + 4 * i, 0);
+                for(int f = 0; f < count; f++)
+                {
+                    String name = names[from + f];
+                    int i = JObject.hash(name) & (capacity - 1);
+                    int s;
+                    // A duplicate name leaves the index pointing at the first field
+                    while((s = buf.getInt(slots + 4 * i)) != 0 && !names[from + s - 1].equals(name))
+                        i = (i + 1) & (capacity - 1);
+                    if(s == 0)
+                        buf.putInt(slots + 4 * i, f + 1);
+                }
+                size = slots + 4 * capacity;
+            }
+            buf.putInt(at + 1, count);
+            buf.putInt(at + 5, table);
+            buf.putInt(at + 9, size);
+        }
+
+        void putString(String s)
+        {
+            int n = BinaryWriter.encodedLength(s);
+            reserve(5 + n);
+            buf.put(size, STRING);
+            buf.putInt(size + 1, n);
+            int i = size + 5;
+            for(int k = 0; k < s.length(); k++)
+            {
+                char c = s.charAt(k);
+                if(c < 0x80)
+                    buf.put(i++, (byte)c);
+                else if(c < 0x800)
+                {
+                    buf.put(i++, (byte)(0xc0 | (c >> 6)));
+                    buf.put(i++, (byte)(0x80 | (c & 0x3f)));
+                }
+                else
+                {
+                    buf.put(i++, (byte)(0xe0 | (c >> 12)));
+                    buf.put(i++, (byte)(0x80 | ((c >> 6) & 0x3f)));
+                    buf.put(i++, (byte)(0x80 | (c & 0x3f)));
+                }
+            }
+            size = i;
+        }
+
+        // Makes room for n more bytes, moving the tape to a larger buffer if needed
+        void reserve(int n)
+        {
+            if(size + n <= buf.capacity())
+                return;
+            long capacity = Math.max((long)buf.capacity() * 2, (long)size + n);
+            if(capacity > Integer.MAX_VALUE)
+                throw new RuntimeException("The document is too large for a tape");
+            ByteBuffer bigger = ByteBuffer.allocateDirect((int)capacity).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer used = buf.duplicate();
+            used.position(0).limit(size);
+            bigger.put(used);
+            buf = bigger;
+        }
+
+        public Json root()
+        {
+            tape();
+            return new JTape(this, 0);
+        }
+
+        // The number of bytes the tape takes
+        public int bytes()
+        {
+            return size;
+        }
+
+        public void close()
+        {
+            buf = null;
+        }
+
+        ByteBuffer tape()
+        {
+            ByteBuffer b = buf;
+            if(b == null)
+                throw new RuntimeException("The tape has been closed");
+            return b;
+        }
+
+        // The position just past the value at the given position
+        int end(ByteBuffer b, int at)
+        {
+            switch(b.get(at))
+            {
+                case LONG:
+                case DOUBLE: return at + 9;
+                case STRING: return at + 5 + b.getInt(at + 1);
+                case OBJECT:
+                case LIST: return b.getInt(at + 9);
+                default: return at + 1;
+            }
+        }
+
+        // The position of the value of the first field with this name, or -1
+        int field(ByteBuffer b, int at, String name)
+        {
+            int count = b.getInt(at + 1);
+            int table = b.getInt(at + 5);
+            if(count > JObject.INDEX_THRESHOLD)
+            {
+                int slots = table + 4 * count;
+                int mask = b.getInt(slots) - 1;
+                int i = JObject.hash(name) & mask;
+                int s;
+                while((s = b.getInt(slots + 4 + 4 * i)) != 0)
+                {
+                    int key = b.getInt(table + 4 * (s - 1));
+                    if(matches(b, key, name))
+                        return end(b, key);
+                    i = (i + 1) & mask;
+                }
+                return -1;
+            }
+            for(int f = 0; f < count; f++)
+            {
+                int key = b.getInt(table + 4 * f);
+                if(matches(b, key, name))
+                    return end(b, key);
+            }
+            return -1;
+        }
+
+        // Tells whether the string at the given position is equal to s, without decoding it
+        boolean matches(ByteBuffer b, int at, String s)
+        {
+            int i = at + 5;
+            int end = i + b.getInt(at + 1);
+            int k = 0;
+            while(i < end)
+            {
+                if(k == s.length() || charAt(b, i) != s.charAt(k++))
+                    return false;
+                i += width(b.get(i));
+            }
+            return k == s.length();
+        }
+
+        String string(ByteBuffer b, int at)
+        {
+            int i = at + 5;
+            int end = i + b.getInt(at + 1);
+            char[] chars = new char[end - i];
+            int n = 0;
+            while(i < end)
+            {
+                chars[n++] = charAt(b, i);
+                i += width(b.get(i));
+            }
+            return new String(chars, 0, n);
+        }
+
+        static int width(byte lead)
+        {
+            return lead >= 0 ? 1 : (lead & 0xe0) == 0xc0 ? 2 : 3;
+        }
+
+        static char charAt(ByteBuffer b, int i)
+        {
+            int lead = b.get(i);
+            if(lead >= 0)
+                return (char)lead;
+            if((lead & 0xe0) == 0xc0)
+                return (char)(((lead & 0x1f) << 6) | (b.get(i + 1) & 0x3f));
+            return (char)(((lead & 0x0f) << 12) | ((b.get(i + 1) & 0x3f) << 6) | (b.get(i + 2) & 0x3f));
+        }
+
+        void write(ByteBuffer b, int at, JsonWriter w)
+        {
+            switch(b.get(at))
+            {
+                case OBJECT:
+                {
+                    w.startObject();
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    for(int f = 0; f < count; f++)
+                    {
+                        int key = b.getInt(table + 4 * f);
+                        w.name(string(b, key));
+                        write(b, end(b, key), w);
+                    }
+                    w.endObject();
+                    break;
+                }
+                case LIST:
+                {
+                    w.startList();
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    for(int i = 0; i < count; i++)
+                        write(b, b.getInt(table + 4 * i), w);
+                    w.endList();
+                    break;
+                }
+                case STRING: w.value(string(b, at)); break;
+                case LONG: w.value(b.getLong(at + 1)); break;
+                case DOUBLE: w.value(b.getDouble(at + 1)); break;
+                case TRUE: w.value(true); break;
+                case FALSE: w.value(false); break;
+                default: w.nullValue(); break;
+            }
+        }
+
+        // Copies the value at at into an ordinary node, for with and without. Only one
+        // level is copied: the items of an object or list stay views of the tape.
+        Json node(ByteBuffer b, int at)
+        {
+            switch(b.get(at))
+            {
+                case OBJECT:
+                {
+                    JObject ob = new JObject();
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    ob.fields.ensureCapacity(count);
+                    for(int f = 0; f < count; f++)
+                    {
+                        int key = b.getInt(table + 4 * f);
+                        ob.add(string(b, key), new JTape(this, end(b, key)));
+                    }
+                    return ob;
+                }
+                case LIST:
+                {
+                    JList list = new JList();
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    list.list.ensureCapacity(count);
+                    for(int i = 0; i < count; i++)
+                        list.list.add(new JTape(this, b.getInt(table + 4 * i)));
+                    return list;
+                }
+                case STRING: return new JString(string(b, at));
+                case LONG: return new JLong(b.getLong(at + 1));
+                case DOUBLE: return new JDouble(b.getDouble(at + 1));
+                case TRUE: return new JBool(true);
+                case FALSE: return new JBool(false);
+                default: return new JNull();
+            }
+        }
+
+        // The hash code of the value at the given position, the same as that of the
+        // node Json.parse makes for it, computed on the tape in place
+        int hash(ByteBuffer b, int at)
+        {
+            switch(b.get(at))
+            {
+                case OBJECT:
+                case LIST:
+                {
+                    boolean object = b.get(at) == OBJECT;
+                    int count = b.getInt(at + 1);
+                    int table = b.getInt(at + 5);
+                    int h = 1;
+                    for(int i = 0; i < count; i++)
+                    {
+                        int pos = b.getInt(table + 4 * i);
+                        if(object)
+                            h = 31 * (31 * h + hash(b, pos)) + hash(b, end(b, pos));
+                        else
+                            h = 31 * h + hash(b, pos);
+                    }
+                    return h;
+                }
+                case STRING:
+                {
+                    // String.hashCode, without making the String
+                    int h = 0;
+                    int end = at + 5 + b.getInt(at + 1);
+                    for(int i = at + 5; i < end; i += width(b.get(i)))
+                        h = 31 * h + charAt(b, i);
+                    return h;
+                }
+                case LONG: return Long.hashCode(b.getLong(at + 1));
+                case DOUBLE: return Double.hashCode(b.getDouble(at + 1));
+                case TRUE: return Boolean.hashCode(true);
+                case FALSE: return Boolean.hashCode(false);
+                default: return 0;
+            }
+        }
+
+        // Tells whether the value at the given position is equal to n, by the rules of
+        // Json.equals, reading the tape in place
+        boolean equal(ByteBuffer b, int at, Json n)
+        {
+            if(n instanceof JTape)
+            {
+                JTape t = (JTape)n;
+                return same(b, at, t.tape.tape(), t.at);
+            }
+            n = n.resolve();
+            switch(b.get(at))
+            {
+                case OBJECT:
+                {
+                    int count = b.getInt(at + 1);
+                    if(!(n instanceof JObject) || ((JObject)n).fields.size() != count)
+                        return false;
+                    ArrayList<NameVal> fields = ((JObject)n).fields;
+                    int table = b.getInt(at + 5);
+                    for(int f = 0; f < count; f++)
+                    {
+                        int key = b.getInt(table + 4 * f);
+                        NameVal nv = fields.get(f);
+                        if(!matches(b, key, nv.name) || !equal(b, end(b, key), nv.value))
+                            return false;
+                    }
+                    return true;
+                }
+                case LIST:
+                {
+                    int count = b.getInt(at + 1);
+                    if(!(n instanceof JList) || ((JList)n).size() != count)
+                        return false;
+                    JList list = (JList)n;
+                    int table = b.getInt(at + 5);
+                    for(int i = 0; i < count; i++)
+                    {
+                        int pos = b.getInt(table + 4 * i);
+                        boolean eq;
+                        if(list.list != null)
+                            eq = equal(b, pos, list.list.get(i));
+                        else if(list.longs != null)
+                            eq = b.get(pos) == LONG && b.getLong(pos + 1) == list.longs[i];
+                        else
+                            eq = b.get(pos) == DOUBLE && Double.doubleToLongBits(b.getDouble(pos + 1)) == Double.doubleToLongBits(list.doubles[i]);
+                        if(!eq)
+                            return false;
+                    }
+                    return true;
+                }
+                case STRING: return n instanceof JString && ((JString)n).value != null && matches(b, at, ((JString)n).value);
+                case LONG: return n instanceof JLong && ((JLong)n).value == b.getLong(at + 1);
+                case DOUBLE: return n instanceof JDouble && Double.doubleToLongBits(((JDouble)n).value) == Double.doubleToLongBits(b.getDouble(at + 1));
+                case TRUE: return n instanceof JBool && ((JBool)n).value;
+                case FALSE: return n instanceof JBool && !((JBool)n).value;
+                default: return n instanceof JNull;
+            }
+        }
+
+        // Tells whether the value at i on tape a is equal to the value at j on tape o.
+        // Strings are encoded the same way on every tape, so their bytes are compared.
+        boolean same(ByteBuffer a, int i, ByteBuffer o, int j)
+        {
+            byte tag = a.get(i);
+            if(o.get(j) != tag)
+                return false;
+            switch(tag)
+            {
+                case OBJECT:
+                case LIST:
+                {
+                    int count = a.getInt(i + 1);
+                    if(o.getInt(j + 1) != count)
+                        return false;
+                    int ta = a.getInt(i + 5);
+                    int to = o.getInt(j + 5);
+                    for(int k = 0; k < count; k++)
+                    {
+                        int x = a.getInt(ta + 4 * k);
+                        int y = o.getInt(to + 4 * k);
+                        if(tag == OBJECT)
+                        {
+                            if(!same(a, x, o, y))
+                                return false;
+                            x = end(a, x);
+                            y = end(o, y);
+                        }
+                        if(!same(a, x, o, y))
+                            return false;
+                    }
+                    return true;
+                }
+                case STRING:
+                {
+                    int len = a.getInt(i + 1);
+                    if(o.getInt(j + 1) != len)
+                        return false;
+                    for(int k = 5; k < 5 + len; k++)
+                    {
+                        if(a.get(i + k) != o.get(j + k))
+                            return false;
+                    }
+                    return true;
+                }
+                case LONG: return a.getLong(i + 1) == o.getLong(j + 1);
+                case DOUBLE: return Double.doubleToLongBits(a.getDouble(i + 1)) == Double.doubleToLongBits(o.getDouble(j + 1));
+                default: return true;
+            }
+        }
+    }
+
+    // A bounded cache of strings that parsers use to share one instance among equal
+    // names and short values, instead of allocating a new String for each occurrence.
+    // It can be shared by any number of parsers on any number of threads. Entries are
+    // immutable Strings written to a plain array, so a race can at worst cost a miss.
+    // Each hash bucket holds two entries, with the most recently added first, and a
+    // new entry pushes out the older one.
+    public static class SymbolTable
+    {
+        String[] table;
+        int maxLength;
+
+        public SymbolTable()
+        {
+            this(4096, 32);
+        }
+
+        // capacity is rounded up to a power of 2. Strings longer than maxLength are not cached.
+        public SymbolTable(int capacity, int maxLength)
+        {
+            if(capacity < 2 || maxLength < 0)
+                throw new IllegalArgumentException("Invalid symbol table size");
+            int n = 2;
+            while(n < capacity)
+                n *= 2;
+            table = new String[n];
+            this.maxLength = maxLength;
+        }
+
+        public String get(String s, int start, int end)
+        {
+            int len = end - start;
+            if(len > maxLength)
+                return s.substring(start, end);
+            int h = 0;
+            for(int i = start; i < end; i++)
+                h = 31 * h + s.charAt(i);
+            String[] t = table;
+            int i = slot(t, h);
+            String a = t[i];
+            if(a != null && a.hashCode() == h && a.length() == len && a.regionMatches(0, s, start, len))
+                return a;
+            String b = t[i + 1];
+            if(b != null && b.hashCode() == h && b.length() == len && b.regionMatches(0, s, start, len))
+                return b;
+            return insert(t, i, a, s.substring(start, end));
+        }
+
+        public String get(char[] chars, int start, int end)
+        {
+            int len = end - start;
+            if(len > maxLength)
+                return new String(chars, start, len);
+            int h = 0;
+            for(int i = start; i < end; i++)
+                h = 31 * h + chars[i];
+            String[] t = table;
+            int i = slot(t, h);
+            String a = t[i];
+            if(a != null && a.hashCode() == h && matches(a, chars, start, len))
+                return a;
+            String b = t[i + 1];
+            if(b != null && b.hashCode() == h && matches(b, chars, start, len))
+                return b;
+            return insert(t, i, a, new String(chars, start, len));
+        }
+
+        static int slot(String[] t, int h)
+        {
+            return ((h ^ (h >>> 16)) & (t.length - 1)) & ~1;
+        }
+
+        static boolean matches(String s, char[] chars, int start, int len)
+        {
+            if(s.length() != len)
+                return false;
+            for(int i = 0; i < len; i++)
+            {
+                if(s.charAt(i) != chars[start + i])
+                    return false;
+            }
+            return true;
+        }
+
+        static String insert(String[] t, int i, String older, String str)
+        {
+            t[i + 1] = older;
+            t[i] = str;
+            return str;
+        }
+    }
+
+    // A cache of parsed files for services that load the same files over and over. A
+    // file is parsed again only after its modification time or size changes. Entries
+    // are evicted least recently used first, to keep the total size of their files
+    // within a bound. The trees it returns are shared, so they are made read-only, and
+    // adding to them throws. Any number of threads may use it at once. When several
+    // miss on the same file together, one of them parses it and the rest wait for it.
+    public static class JsonFileCache
+    {
+        // A file as it was when it was read
+        static class Key
+        {
+            Path path;
+            long modified;
+            long size;
+
+            Key(Path p, long mod, long sz)
+            {
+                path = p;
+                modified = mod;
+                size = sz;
+            }
+
+            public boolean equals(Object o)
+            {
+                if(!(o instanceof Key))
+                    return false;
+                Key k = (Key)o;
+                return path.equals(k.path) && modified == k.modified && size == k.size;
+            }
+
+            public int hashCode()
+            {
+                return path.hashCode() * 31 + Long.hashCode(modified ^ size);
+            }
+        }
+
+        static class Entry
+        {
+            Key key;
+            Json value;
+
+            Entry(Key k, Json val)
+            {
+                key = k;
+                value = val;
+            }
+        }
+
+        long maxBytes;
+        SymbolTable symbols;
+
+        // Entries by path, in least recently used order. Guarded by this.
+        LinkedHashMap<Path, Entry> entries;
+        long bytes;
+
+        // The loads in progress
+        ConcurrentHashMap<Key, CompletableFuture<Json>> loading;
+
+        LongAdder hits;
+        LongAdder misses;
+        LongAdder evictions;
+
+        public JsonFileCache(long maxBytes)
+        {
+            this(maxBytes, null);
+        }
+
+        public JsonFileCache(long maxBytes, SymbolTable symbols)
+        {
+            if(maxBytes < 0)
+                throw new IllegalArgumentException("Invalid cache size");
+            this.maxBytes = maxBytes;
+            this.symbols = symbols;
+            entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+            loading = new ConcurrentHashMap<Key, CompletableFuture<Json>>();
+            hits = new LongAdder();
+            misses = new LongAdder();
+            evictions = new LongAdder();
+        }
+
+        public Json load(String filename)
+        {
+            return load(Paths.get(filename));
+        }
+
+        public Json load(Path path)
+        {
+            Key key;
+            try
+            {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                key = new Key(path.toAbsolutePath().normalize(), attrs.lastModifiedTime().toMillis(), attrs.size());
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            Json value = cached(key);
+            if(value != null)
+                return value;
+            misses.increment();
+            CompletableFuture<Json> load = new CompletableFuture<Json>();
+            CompletableFuture<Json> other = loading.putIfAbsent(key, load);
+            if(other != null)
+            {
+                try
+                {
+                    return other.join();
+                }
+                catch(CompletionException e)
+                {
+                    if(e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException)e.getCause();
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            try
+            {
+                // Another thread may have finished loading it since the lookup
+                value = cached(key);
+                if(value == null)
+                {
+                    value = Json.load(path.toString(), symbols).freeze();
+                    put(key, value);
+                }
+                load.complete(value);
+                return value;
+            }
+            catch(RuntimeException e)
+            {
+                load.completeExceptionally(e);
+                throw e;
+            }
+            finally
+            {
+                loading.remove(key, load);
+            }
+        }
+
+        synchronized Json cached(Key key)
+        {
+            Entry e = entries.get(key.path);
+            if(e == null || !e.key.equals(key))
+                return null;
+            hits.increment();
+            return e.value;
+        }
+
+        synchronized void put(Key key, Json value)
+        {
+            Entry old = entries.get(key.path);
+            if(old != null)
+            {
+                // A slower load of an older version must not replace a newer one
+                if(old.key.modified > key.modified)
+                    return;
+                entries.remove(key.path);
+                bytes -= old.key.size;
+            }
+            if(key.size > maxBytes)
+                return;
+            entries.put(key.path, new Entry(key, value));
+            bytes += key.size;
+            Iterator<Entry> it = entries.values().iterator();
+            while(bytes > maxBytes)
+            {
+                Entry e = it.next();
+                it.remove();
+                bytes -= e.key.size;
+                evictions.increment();
+            }
+        }
+
+        // Drops the entry for a file, so the next load parses it again
+        public synchronized void invalidate(Path path)
+        {
+            Entry old = entries.remove(path.toAbsolutePath().normalize());
+            if(old != null)
+                bytes -= old.key.size;
+        }
+
+        public synchronized void clear()
+        {
+            entries.clear();
+            bytes = 0;
+        }
+
+        // The number of files cached
+        public synchronized int size()
+        {
+            return entries.size();
+        }
+
+        // The total size of the cached files
+        public synchronized long bytes()
+        {
+            return bytes;
+        }
+
+        public long hits()
+        {
+            return hits.sum();
+        }
+
+        public long misses()
+        {
+            return misses.sum();
+        }
+
+        public long evictions()
+        {
+            return evictions.sum();
+        }
+    }
+
+    private static class NameVal
+    {
+        final String name;
+        final Json value;
+
+        NameVal(String nam, Json val)
+        {
+            if(nam == null)
+                throw new IllegalArgumentException("The name cannot be null");
+            if(val == null)
+                val = new JNull();
+            name = nam;
+            value = val;
+        }
+    }
+
+    private static class JObject extends Json
+    {
+        // Objects with more fields than this get a hash index for lookups
+        static final int INDEX_THRESHOLD = 8;
+
+        ArrayList<NameVal> fields;
+
+        // An open addressing hash table that maps names to the first field with that name.
+        // Each slot holds a position in fields plus one, or 0 if the slot is empty.
+        int[] slots;
+        int[] hashes;
+        int indexed;
+
+        // Set once frozen, and then the cached hash code and text
+        boolean frozen;
+        int hash;
+        String text;
+
+        JObject()
+        {
+            fields = new ArrayList<NameVal>();
+        }
+
+        public Json freeze()
+        {
+            seal();
+            return new JFrozen(this);
+        }
+
+        void seal()
+        {
+            if(frozen)
+                return;
+            fields.trimToSize();
+            for(int i = 0; i < fields.size(); i++)
+                fields.get(i).value.seal();
+            frozen = true;
+        }
+
+        public boolean isFrozen()
+        {
+            return frozen;
+        }
+
+        Json copy()
+        {
+            if(frozen)
+                return this;
+            JObject ob = new JObject();
+            ob.fields.ensureCapacity(fields.size());
+            for(int i = 0; i < fields.size(); i++)
+            {
+                NameVal nv = fields.get(i);
+                ob.add(nv.name, nv.value.copy());
+            }
+            return ob;
+        }
+
+        // Objects are equal when they have equal fields in the same order
+        public boolean equals(Object o)
+        {
+            Json n = node(o);
+            if(n == this)
+                return true;
+            if(n instanceof JTape)
+                return n.equals(this);
+            if(!(n instanceof JObject) || ((JObject)n).fields.size() != fields.size())
+                return false;
+            ArrayList<NameVal> other = ((JObject)n).fields;
+            for(int i = 0; i < fields.size(); i++)
+            {
+                NameVal a = fields.get(i);
+                NameVal b = other.get(i);
+                if(!a.name.equals(b.name) || !a.value.equals(b.value))
+                    return false;
+            }
+            return true;
+        }
+
+        public int hashCode()
+        {
+            int h = hash;
+            if(h == 0)
+            {
+                h = 1;
+                for(int i = 0; i < fields.size(); i++)
+                {
+                    NameVal nv = fields.get(i);
+                    h = 31 * (31 * h + nv.name.hashCode()) + nv.value.hashCode();
+                }
+                if(frozen)
+                    hash = h;
+            }
+            return h;
+        }
+
+        public String toString()
+        {
+            String t = text;
+            if(t == null)
+            {
+                t = super.toString();
+                if(frozen)
+                    text = t;
+            }
+            return t;
+        }
+
+        public void add(String name, Json val)
+        {
+            if(frozen)
+                throw new RuntimeException("This object is read-only");
+            fields.add(new NameVal(name, val));
+            if(slots != null)
+                index(fields.size() - 1);
+            else if(fields.size() > INDEX_THRESHOLD)
+                buildIndex(16);
+        }
+
+        static int hash(String name)
+        {
+            int h = name.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        void buildIndex(int capacity)
+        {
+            while(capacity < fields.size() * 2)
+                capacity *= 2;
+            slots = new int[capacity];
+            hashes = new int[capacity];
+            indexed = 0;
+            for(int i = 0; i < fields.size(); i++)
+                index(i);
+        }
+
+        void index(int pos)
+        {
+            if((indexed + 1) * 2 > slots.length)
+            {
+                buildIndex(slots.length * 2);
+                return;
+            }
+            String name = fields.get(pos).name;
+            int h = hash(name);
+            int mask = slots.length - 1;
+            int i = h & mask;
+            while(slots[i] != 0)
+            {
+                // A duplicate name leaves the index pointing at the first field
+                if(hashes[i] == h && fields.get(slots[i] - 1).name.equals(name))
+                    return;
+                i = (i + 1) & mask;
+            }
+            slots[i] = pos + 1;
+            hashes[i] = h;
+            indexed++;
+        }
+
+        // Returns the position in fields of the first field with this name, or -1
+        int position(String name)
+        {
+            if(slots == null)
+            {
+                for(int i = 0; i < fields.size(); i++)
+                {
+                    if(fields.get(i).name.equals(name))
+                        return i;
+                }
+                return -1;
+            }
+            int h = hash(name);
+            int mask = slots.length - 1;
+            int i = h & mask;
+            while(slots[i] != 0)
+            {
+                if(hashes[i] == h && fields.get(slots[i] - 1).name.equals(name))
+                    return slots[i] - 1;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        Json fieldIfExists(String name)
+        {
+            int i = position(name);
+            return i < 0 ? null : fields.get(i).value;
+        }
+
+        // Returns a frozen copy with the field at pos set to value, or removed if value
+        // is null. pos may be the number of fields, to add one. The values are shared,
+        // so only this object's own field list and index are copied.
+        JObject copyWith(int pos, String name, Json value)
+        {
+            JObject copy = new JObject();
+            if(value == null)
+            {
+                for(int i = 0; i < fields.size(); i++)
+                {
+                    if(i != pos)
+                        copy.fields.add(fields.get(i));
+                }
+                if(copy.fields.size() > INDEX_THRESHOLD)
+                    copy.buildIndex(16);
+            }
+            else
+            {
+                copy.fields = new ArrayList<NameVal>(fields);
+                if(slots != null)
+                {
+                    copy.slots = slots.clone();
+                    copy.hashes = hashes.clone();
+                    copy.indexed = indexed;
+                }
+                if(pos < fields.size())
+                    copy.fields.set(pos, new NameVal(name, value));
+                else
+                    copy.add(name, value);
+            }
+            copy.seal();
+            return copy;
+        }
+
+        Json field(String name)
+        {
+            Json n = fieldIfExists(name);
+            if(n == null)
+                throw new RuntimeException("No field named \"" + name + "\" found.");
+            return n;
+        }
+
+        void write(JsonWriter w)
+        {
+            w.startObject();
+            for(int i = 0; i < fields.size(); i++)
+            {
+                NameVal nv = fields.get(i);
+                w.name(nv.name);
+                nv.value.write(w);
+            }
+            w.endObject();
+        }
+
+        static JObject parseObject(Parser p)
+        {
+            p.expect("{");
+            JObject newOb = new JObject();
+            boolean readyForField = true;
+            while(p.remaining() > 0)
+            {
                 char c = p.peek();
                 if(c <= ' ')
                 {
@@ -511,51 +6406,394 @@ public abstract class Json
                     readyForField = false;
                 }
                 else
-                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + p.str.substring(p.pos, p.pos + 10));
+                    throw new RuntimeException("Expected a '}' or a '\"'. Got " + p.snippet(10));
+            }
+            throw new RuntimeException("Expected a matching '}' in JSON file");
+        }
+    }
+
+    // A list keeps its items in an ArrayList, unless they are all longs or all doubles.
+    // Then it packs them into a primitive array and makes nodes for them on access.
+    // Adding an item of another kind unpacks the list for good.
+    private static class JList extends Json
+    {
+        static final int PACKED_CAPACITY = 8;
+
+        ArrayList<Json> list;
+        long[] longs;
+        double[] doubles;
+        int count;
+
+        // Set once frozen, and then the cached hash code and text
+        boolean frozen;
+        int hash;
+        String text;
+
+        JList()
+        {
+            list = new ArrayList<Json>();
+        }
+
+        public Json freeze()
+        {
+            seal();
+            return new JFrozen(this);
+        }
+
+        void seal()
+        {
+            if(frozen)
+                return;
+            if(list != null)
+            {
+                list.trimToSize();
+                for(int i = 0; i < list.size(); i++)
+                    list.get(i).seal();
+            }
+            else if(longs != null && longs.length > count)
+                longs = Arrays.copyOf(longs, count);
+            else if(doubles != null && doubles.length > count)
+                doubles = Arrays.copyOf(doubles, count);
+            frozen = true;
+        }
+
+        public boolean isFrozen()
+        {
+            return frozen;
+        }
+
+        Json copy()
+        {
+            if(frozen)
+                return this;
+            JList c = new JList();
+            c.count = count;
+            if(list != null)
+            {
+                c.list.ensureCapacity(list.size());
+                for(int i = 0; i < list.size(); i++)
+                    c.list.add(list.get(i).copy());
+                return c;
+            }
+            c.list = null;
+            if(longs != null)
+                c.longs = Arrays.copyOf(longs, count);
+            else
+                c.doubles = Arrays.copyOf(doubles, count);
+            return c;
+        }
+
+        // Lists are equal when they have equal items in the same order, packed or not
+        public boolean equals(Object o)
+        {
+            Json n = node(o);
+            if(n == this)
+                return true;
+            if(n instanceof JTape)
+                return n.equals(this);
+            if(!(n instanceof JList) || ((JList)n).size() != size())
+                return false;
+            JList other = (JList)n;
+            for(int i = 0; i < size(); i++)
+            {
+                if(!get(i).equals(other.get(i)))
+                    return false;
+            }
+            return true;
+        }
+
+        public int hashCode()
+        {
+            int h = hash;
+            if(h == 0)
+            {
+                h = 1;
+                for(int i = 0; i < size(); i++)
+                {
+                    int item;
+                    if(longs != null)
+                        item = Long.hashCode(longs[i]);
+                    else if(doubles != null)
+                        item = Double.hashCode(doubles[i]);
+                    else
+                        item = list.get(i).hashCode();
+                    h = 31 * h + item;
+                }
+                if(frozen)
+                    hash = h;
+            }
+            return h;
+        }
+
+        public String toString()
+        {
+            String t = text;
+            if(t == null)
+            {
+                t = super.toString();
+                if(frozen)
+                    text = t;
+            }
+            return t;
+        }
+
+        void checkChange()
+        {
+            if(frozen)
+                throw new RuntimeException("This list is read-only");
+        }
+
+        // Returns a frozen copy with the item at index set to item, or removed if item
+        // is null. index may be the size, to add one. The items are shared, so only this
+        // list's own storage is copied.
+        JList copyWith(int index, Json item)
+        {
+            JList copy = new JList();
+            if(list != null)
+            {
+                copy.list = new ArrayList<Json>(list);
+                if(item == null)
+                    copy.list.remove(index);
+                else if(index < list.size())
+                    copy.list.set(index, item);
+                else
+                    copy.list.add(item);
+            }
+            else if(item == null || (longs != null ? item instanceof JLong : item instanceof JDouble))
+            {
+                // The array is copied, and only the one slot is set or removed
+                copy.list = null;
+                copy.count = item == null ? count - 1 : Math.max(count, index + 1);
+                if(longs != null)
+                {
+                    copy.longs = Arrays.copyOf(longs, Math.max(copy.count, index));
+                    if(item == null)
+                        System.arraycopy(longs, index + 1, copy.longs, index, count - index - 1);
+                    else
+                        copy.longs[index] = ((JLong)item).value;
+                }
+                else
+                {
+                    copy.doubles = Arrays.copyOf(doubles, Math.max(copy.count, index));
+                    if(item == null)
+                        System.arraycopy(doubles, index + 1, copy.doubles, index, count - index - 1);
+                    else
+                        copy.doubles[index] = ((JDouble)item).value;
+                }
+            }
+            else
+            {
+                // An item of another kind unpacks the values, through add
+                for(int i = 0; i < count; i++)
+                {
+                    if(i != index)
+                        copy.add(get(i));
+                    else if(item != null)
+                        copy.add(item);
+                }
+                if(index == count)
+                    copy.add(item);
+            }
+            copy.seal();
+            return copy;
+        }
+
+        public void add(Json item)
+        {
+            checkChange();
+            if(item == null)
+                item = new JNull();
+            if(list != null && list.size() == 0)
+            {
+                if(item instanceof JLong)
+                    packLongs(PACKED_CAPACITY);
+                else if(item instanceof JDouble)
+                    packDoubles(PACKED_CAPACITY);
+            }
+            if(longs != null && item instanceof JLong)
+                addLong(((JLong)item).value);
+            else if(doubles != null && item instanceof JDouble)
+                addDouble(((JDouble)item).value);
+            else
+            {
+                if(list == null)
+                    unpack();
+                list.add(item);
             }
-            throw new RuntimeException("Expected a matching '}' in JSON file");
         }
-    }
 
-    private static class JList extends Json
-    {
-        ArrayList<Json> list;
+        void addLong(long val)
+        {
+            if(count == longs.length)
+                longs = Arrays.copyOf(longs, count * 2);
+            longs[count++] = val;
+        }
 
-        JList()
+        void addDouble(double val)
         {
-            list = new ArrayList<Json>();
+            if(count == doubles.length)
+                doubles = Arrays.copyOf(doubles, count * 2);
+            doubles[count++] = val;
         }
 
-        public void add(Json item)
+        void addAll(long[] vals)
         {
-            if(item == null)
-                item = new JNull();
-            list.add(item);
+            checkChange();
+            if(list != null && list.size() == 0)
+                packLongs(Math.max(vals.length, PACKED_CAPACITY));
+            if(longs != null)
+            {
+                if(count + vals.length > longs.length)
+                    longs = Arrays.copyOf(longs, Math.max(count * 2, count + vals.length));
+                System.arraycopy(vals, 0, longs, count, vals.length);
+                count += vals.length;
+            }
+            else
+            {
+                for(int i = 0; i < vals.length; i++)
+                    add(new JLong(vals[i]));
+            }
+        }
+
+        void addAll(double[] vals)
+        {
+            checkChange();
+            if(list != null && list.size() == 0)
+                packDoubles(Math.max(vals.length, PACKED_CAPACITY));
+            if(doubles != null)
+            {
+                if(count + vals.length > doubles.length)
+                    doubles = Arrays.copyOf(doubles, Math.max(count * 2, count + vals.length));
+                System.arraycopy(vals, 0, doubles, count, vals.length);
+                count += vals.length;
+            }
+            else
+            {
+                for(int i = 0; i < vals.length; i++)
+                    add(new JDouble(vals[i]));
+            }
+        }
+
+        void packLongs(int capacity)
+        {
+            list = null;
+            longs = new long[capacity];
+        }
+
+        void packDoubles(int capacity)
+        {
+            list = null;
+            doubles = new double[capacity];
+        }
+
+        void unpack()
+        {
+            list = new ArrayList<Json>(Math.max(count * 2, 10));
+            for(int i = 0; i < count; i++)
+                list.add(longs != null ? new JLong(longs[i]) : new JDouble(doubles[i]));
+            longs = null;
+            doubles = null;
+            count = 0;
+        }
+
+        void checkIndex(int index)
+        {
+            if(index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
         }
 
         public int size()
         {
-            return list.size();
+            return list != null ? list.size() : count;
         }
 
         public Json get(int index)
         {
-            return list.get(index);
+            if(list != null)
+                return list.get(index);
+            checkIndex(index);
+            if(longs != null)
+                return new JLong(longs[index]);
+            return new JDouble(doubles[index]);
+        }
+
+        long longAt(int index)
+        {
+            if(longs == null)
+                return get(index).asLong();
+            checkIndex(index);
+            return longs[index];
+        }
+
+        double doubleAt(int index)
+        {
+            if(list != null)
+                return get(index).asDouble();
+            checkIndex(index);
+            return doubles != null ? doubles[index] : (double)longs[index];
+        }
+
+        long[] toLongArray()
+        {
+            if(longs != null)
+                return Arrays.copyOf(longs, count);
+            long[] vals = new long[size()];
+            for(int i = 0; i < vals.length; i++)
+                vals[i] = get(i).asLong();
+            return vals;
+        }
+
+        double[] toDoubleArray()
+        {
+            if(doubles != null)
+                return Arrays.copyOf(doubles, count);
+            double[] vals = new double[size()];
+            for(int i = 0; i < vals.length; i++)
+                vals[i] = doubleAt(i);
+            return vals;
+        }
+
+        void write(JsonWriter w)
+        {
+            w.startList();
+            if(longs != null)
+            {
+                for(int i = 0; i < count; i++)
+                    w.value(longs[i]);
+            }
+            else if(doubles != null)
+            {
+                for(int i = 0; i < count; i++)
+                    w.value(doubles[i]);
+            }
+            else
+            {
+                for(int i = 0; i < list.size(); i++)
+                    list.get(i).write(w);
+            }
+            w.endList();
         }
 
-        void write(StringBuilder sb)
+        // Numbers are scanned straight into a packed list, without making nodes
+        void addNumber(Parser p)
         {
-            sb.append("[");
-            for(int i = 0; i < list.size(); i++)
+            p.scanNumber();
+            if(list != null && list.size() == 0)
             {
-                if(i > 0)
-                    sb.append(",");
-                list.get(i).write(sb);
+                if(p.isLong)
+                    packLongs(PACKED_CAPACITY);
+                else
+                    packDoubles(PACKED_CAPACITY);
             }
-            sb.append("]");
+            if(p.isLong && longs != null)
+                addLong(p.longValue);
+            else if(!p.isLong && doubles != null)
+                addDouble(p.doubleValue);
+            else
+                add(p.isLong ? new JLong(p.longValue) : new JDouble(p.doubleValue));
         }
 
-        static JList parseList(StringParser p)
+        static JList parseList(Parser p)
         {
             p.expect("[");
             JList newList = new JList();
@@ -580,7 +6818,10 @@ public abstract class Json
                 {
                     if(!readyForValue)
                         throw new RuntimeException("Expected a ',' or ']' in JSON file");
-                    newList.list.add(Json.parseNode(p));
+                    if((c >= '0' && c <= '9') || c == '-')
+                        newList.addNumber(p);
+                    else
+                        newList.add(Json.parseNode(p));
                     readyForValue = false;
                 }
             }
@@ -588,153 +6829,426 @@ public abstract class Json
         }
     }
 
+    // An object or list that has been checked but not built yet. It remembers where
+    // its value starts in the input, and builds it there on first use.
+    private static class JLazy extends Json
+    {
+        // The input, which is dropped once node is built. node is volatile so that a
+        // tree can be read by several threads, and the first to need a level builds it.
+        Parser source;
+        final int start;
+        volatile Json node;
+
+        JLazy(Parser p, int pos)
+        {
+            source = p;
+            start = pos;
+        }
+
+        static Json skip(Parser p)
+        {
+            int pos = p.position();
+            if(p.checked)
+                p.skipChecked();
+            else
+                p.skipValue();
+            return new JLazy(p, pos);
+        }
+
+        Json resolve()
+        {
+            Json n = node;
+            return n != null ? n : build();
+        }
+
+        synchronized Json build()
+        {
+            if(node == null)
+            {
+                Parser p = source.reopen(start);
+                p.lazy = true;
+                p.checked = true;
+                Json n;
+                if(p.peek() == '{')
+                    n = JObject.parseObject(p);
+                else
+                    n = JList.parseList(p);
+                node = n;
+                source = null;
+            }
+            return node;
+        }
+
+        void write(JsonWriter w)
+        {
+            resolve().write(w);
+        }
+
+        public Json freeze()
+        {
+            return resolve().freeze();
+        }
+
+        void seal()
+        {
+            resolve().seal();
+        }
+
+        Json copy()
+        {
+            return resolve().copy();
+        }
+
+        public boolean isFrozen()
+        {
+            return node != null && node.isFrozen();
+        }
+
+        public boolean equals(Object o)
+        {
+            return resolve().equals(o);
+        }
+
+        public int hashCode()
+        {
+            return resolve().hashCode();
+        }
+
+        public String toString()
+        {
+            return resolve().toString();
+        }
+    }
+
+    // The node that freeze returns for an object or list. The final field guarantees
+    // that a thread that sees this node also sees the tree as it was when frozen.
+    private static class JFrozen extends Json
+    {
+        final Json node;
+
+        JFrozen(Json n)
+        {
+            node = n;
+        }
+
+        Json resolve()
+        {
+            return node;
+        }
+
+        void write(JsonWriter w)
+        {
+            node.write(w);
+        }
+
+        public Json freeze()
+        {
+            return this;
+        }
+
+        public boolean equals(Object o)
+        {
+            return node.equals(o);
+        }
+
+        public int hashCode()
+        {
+            return node.hashCode();
+        }
+
+        public String toString()
+        {
+            return node.toString();
+        }
+    }
+
+    // A view of a value on a Tape. It holds no data of its own, only the position of
+    // the value, and reads the tape each time it is asked.
+    private static class JTape extends Json
+    {
+        final Tape tape;
+        final int at;
+
+        JTape(Tape t, int pos)
+        {
+            tape = t;
+            at = pos;
+        }
+
+        ByteBuffer expect(byte tag, String kind)
+        {
+            ByteBuffer b = tape.tape();
+            if(b.get(at) != tag)
+                throw new ClassCastException("The value is not " + kind);
+            return b;
+        }
+
+        // with and without get a read-only copy of one level of this value, whose items
+        // are still views of the tape, so an edit copies only the path it changes
+        Json resolve()
+        {
+            Json n = tape.node(tape.tape(), at);
+            n.seal();
+            return n;
+        }
+
+        // The node that node() gives for this value to compare: a copy of a single
+        // value, or this view of an object or list, which is compared in place
+        Json comparable()
+        {
+            byte tag = tape.tape().get(at);
+            return tag == Tape.OBJECT || tag == Tape.LIST ? this : resolve();
+        }
+
+        void write(JsonWriter w)
+        {
+            tape.write(tape.tape(), at, w);
+        }
+
+        public boolean equals(Object o)
+        {
+            return o instanceof Json && tape.equal(tape.tape(), at, (Json)o);
+        }
+
+        public int hashCode()
+        {
+            return tape.hash(tape.tape(), at);
+        }
+
+        public int size()
+        {
+            ByteBuffer b = tape.tape();
+            if(b.get(at) != Tape.OBJECT && b.get(at) != Tape.LIST)
+                throw new ClassCastException("The value is not an object or a list");
+            return b.getInt(at + 1);
+        }
+
+        public Json get(String name)
+        {
+            int pos = tape.field(expect(Tape.OBJECT, "an object"), at, name);
+            if(pos < 0)
+                throw new RuntimeException("No field named \"" + name + "\" found.");
+            return new JTape(tape, pos);
+        }
+
+        public Json get(int index)
+        {
+            ByteBuffer b = expect(Tape.LIST, "a list");
+            int count = b.getInt(at + 1);
+            if(index < 0 || index >= count)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            return new JTape(tape, b.getInt(b.getInt(at + 5) + 4 * index));
+        }
+
+        public long getLong(int index)
+        {
+            return get(index).asLong();
+        }
+
+        public double getDouble(int index)
+        {
+            return get(index).asDouble();
+        }
+
+        public boolean asBool()
+        {
+            ByteBuffer b = tape.tape();
+            if(b.get(at) != Tape.TRUE && b.get(at) != Tape.FALSE)
+                throw new ClassCastException("The value is not a bool");
+            return b.get(at) == Tape.TRUE;
+        }
+
+        public long asLong()
+        {
+            return expect(Tape.LONG, "a long").getLong(at + 1);
+        }
+
+        public double asDouble()
+        {
+            ByteBuffer b = tape.tape();
+            if(b.get(at) == Tape.LONG)
+                return (double)b.getLong(at + 1);
+            return expect(Tape.DOUBLE, "a number").getDouble(at + 1);
+        }
+
+        public String asString()
+        {
+            return tape.string(expect(Tape.STRING, "a string"), at);
+        }
+
+        public long[] asLongArray()
+        {
+            long[] vals = new long[size()];
+            for(int i = 0; i < vals.length; i++)
+                vals[i] = getLong(i);
+            return vals;
+        }
+
+        public double[] asDoubleArray()
+        {
+            double[] vals = new double[size()];
+            for(int i = 0; i < vals.length; i++)
+                vals[i] = getDouble(i);
+            return vals;
+        }
+
+        // Adding to a tape fails, as it does for any frozen node
+        public boolean isFrozen()
+        {
+            return true;
+        }
+    }
+
     private static class JBool extends Json
     {
-        boolean value;
+        final boolean value;
 
         JBool(boolean val)
         {
             value = val;
         }
 
-        void write(StringBuilder sb)
+        void write(JsonWriter w)
         {
-            sb.append(value ? "true" : "false");
+            w.value(value);
+        }
+
+        public boolean equals(Object o)
+        {
+            Json n = node(o);
+            return n instanceof JBool && ((JBool)n).value == value;
+        }
+
+        public int hashCode()
+        {
+            return Boolean.hashCode(value);
         }
     }
 
     private static class JLong extends Json
     {
-        long value;
+        final long value;
 
         JLong(long val)
         {
             value = val;
         }
 
-        void write(StringBuilder sb)
+        void write(JsonWriter w)
+        {
+            w.value(value);
+        }
+
+        // A long is never equal to a double, since they are written differently
+        public boolean equals(Object o)
+        {
+            Json n = node(o);
+            return n instanceof JLong && ((JLong)n).value == value;
+        }
+
+        public int hashCode()
         {
-            sb.append(value);
+            return Long.hashCode(value);
         }
     }
 
     private static class JDouble extends Json {
-        double value;
+        final double value;
 
         JDouble(double val) {
             value = val;
         }
 
-        void write(StringBuilder sb) {
-            sb.append(value);
+        void write(JsonWriter w) {
+            w.value(value);
         }
 
-        static Json parseNumber(StringParser p) {
-            String s = p.whileReal();
-            // Java doesn't support scientific notation for integers, see
-            // https://docs.oracle.com/javase/specs/jls/se12/html/jls-3.html#jls-3.10.1
-            // Additionally, the JSON RFC recommends the IEEE 754 binary64 standard (the double type)
-            // as the encoding for large numbers
-            if (s.indexOf('.') >= 0 || s.indexOf('e') >= 0 || s.indexOf('E') >= 0) {
-                if (s.indexOf('e') == s.indexOf('.') + 1 || s.indexOf('E') == s.indexOf('.') + 1) {
-                    throw new RuntimeException("Decimal must be followed by a number, not an exponent");
-                } else if (s.indexOf('.') == (s.length() - 1)) {
-                    throw new RuntimeException("Decimal must be followed by a number");
-                } else if (s.indexOf('.') == s.indexOf('-') + 1) {
-                    throw new RuntimeException("Decimal numbers must have an integer part");
-                }
-                return new JDouble(Double.parseDouble(s));
-            } else {
-                if ((s.indexOf('-') == 0 && s.indexOf('0') == 1 && s.length() > 2) || (s.indexOf('0') == 0 &&
-                        s.length() > 1 && s.indexOf('-') == -1)) {
-                    throw new RuntimeException("Integer cannot have a leading zero");
-                }
-                return new JLong(Long.parseLong(s));
-            }
+        public boolean equals(Object o) {
+            Json n = node(o);
+            return n instanceof JDouble && Double.doubleToLongBits(((JDouble)n).value) == Double.doubleToLongBits(value);
+        }
+
+        public int hashCode() {
+            return Double.hashCode(value);
+        }
+
+        static Json parseNumber(Parser p) {
+            p.scanNumber();
+            if (p.isLong)
+                return new JLong(p.longValue);
+            return new JDouble(p.doubleValue);
         }
     }
 
     private static class JString extends Json
     {
-        String value;
+        static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        final String value;
 
         JString(String val)
         {
             value = val;
         }
 
-        static void write(StringBuilder sb, String value)
+        public boolean equals(Object o)
+        {
+            Json n = node(o);
+            return n instanceof JString && Objects.equals(((JString)n).value, value);
+        }
+
+        public int hashCode()
+        {
+            return Objects.hashCode(value);
+        }
+
+        // Runs of characters that need no escape are written in one call
+        static void write(JsonWriter w, String value)
         {
-            sb.append('"');
+            w.put('"');
+            int start = 0;
             for(int i = 0; i < value.length(); i++)
             {
                 char c = value.charAt(i);
+                if(c >= ' ' && c != '"' && c != '\\')
+                    continue;
+                if(start < i)
+                    w.put(value, start, i);
+                start = i + 1;
                 if(c < ' ')
                 {
                     switch(c)
                     {
-                        case '\b': sb.append("\\b"); break;
-                        case '\f': sb.append("\\f"); break;
-                        case '\n': sb.append("\\n"); break;
-                        case '\r': sb.append("\\r"); break;
-                        case '\t': sb.append("\\t"); break;
+                        case '\b': w.put("\\b"); break;
+                        case '\f': w.put("\\f"); break;
+                        case '\n': w.put("\\n"); break;
+                        case '\r': w.put("\\r"); break;
+                        case '\t': w.put("\\t"); break;
                         default:
-                            sb.append(c);
+                            w.put("\\u00");
+                            w.put(HEX_DIGITS[c >> 4]);
+                            w.put(HEX_DIGITS[c & 0xf]);
                     }
                 }
                 else if(c == '\\')
-                    sb.append("\\\\");
-                else if(c == '"')
-                    sb.append("\\\"");
+                    w.put("\\\\");
                 else
-                    sb.append(c);
+                    w.put("\\\"");
             }
-            sb.append('"');
+            if(start < value.length())
+                w.put(value, start, value.length());
+            w.put('"');
         }
 
-        void write(StringBuilder sb)
+        void write(JsonWriter w)
         {
-            write(sb, value);
+            w.value(value);
         }
 
-        static String parseString(StringParser p)
+        static String parseString(Parser p)
         {
-            StringBuilder sb = new StringBuilder();
             p.expect("\"");
-            while(p.remaining() > 0)
-            {
-                char c = p.peek();
-                if(c == '\"')
-                {
-                    p.advance(1);
-                    return sb.toString();
-                }
-                else if(c == '\\')
-                {
-                    p.advance(1);
-                    c = p.peek();
-                    p.advance(1);
-                    switch(c)
-                    {
-                        case '"': sb.append('"'); break;
-                        case '\\': sb.append('\\'); break;
-                        case '/': sb.append('/'); break;
-                        case 'b': sb.append('\b'); break;
-                        case 'f': sb.append('\f'); break;
-                        case 'n': sb.append('\n'); break;
-                        case 'r': sb.append('\r'); break;
-                        case 't': sb.append('\t'); break;
-                        case 'u': p.retreat(1); sb.append(p.untilEscapeCharacter()); break;
-                        default: throw new RuntimeException("Unrecognized escape sequence");
-                    }
-                }
-                else
-                {
-                    sb.append(c);
-                    p.advance(1);
-                }
-            }
-            throw new RuntimeException("No closing \"");
+            return p.readString();
         }
     }
 
@@ -744,9 +7258,19 @@ public abstract class Json
         {
         }
 
-        void write(StringBuilder sb)
+        void write(JsonWriter w)
+        {
+            w.nullValue();
+        }
+
+        public boolean equals(Object o)
+        {
+            return node(o) instanceof JNull;
+        }
+
+        public int hashCode()
         {
-            sb.append("null");
+            return 0;
         }
     }
 
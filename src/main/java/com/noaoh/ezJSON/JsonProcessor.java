@@ -0,0 +1,502 @@
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+package com.noaoh.ezJSON;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+// Generates the readers and writers for classes marked with @JsonSerializable.
+// Reading pulls tokens from a Json.Reader and assigns them straight to the fields,
+// and writing pushes the fields straight to a Json.JsonWriter, so no DOM is built.
+// Names are matched by a switch on their hash codes, which are computed here, with
+// an equals check to rule out collisions. Nothing is looked up by reflection.
+// javac finds this processor through META-INF/services when ezJSON is on the class path.
+@SupportedAnnotationTypes("com.noaoh.ezJSON.JsonSerializable")
+public class JsonProcessor extends AbstractProcessor
+{
+    static final String TOKEN = "Json.Reader.Token.";
+
+    // What a field was rejected for. It is reported as an error on that field.
+    static class Unsupported extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message)
+        {
+            super(message);
+        }
+    }
+
+    // Collects the lines of a source file, indenting them by their nesting
+    static class Code
+    {
+        StringBuilder sb = new StringBuilder();
+        int indent;
+
+        Code line(String s)
+        {
+            for(int i = 0; i < indent && s.length() > 0; i++)
+                sb.append("    ");
+            sb.append(s).append('\n');
+            return this;
+        }
+
+        Code open()
+        {
+            line("{");
+            indent++;
+            return this;
+        }
+
+        Code close()
+        {
+            indent--;
+            return line("}");
+        }
+    }
+
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env)
+    {
+        for(Element e : env.getElementsAnnotatedWith(JsonSerializable.class))
+        {
+            if(e.getKind() != ElementKind.CLASS)
+            {
+                error(e, "@JsonSerializable only applies to classes");
+                continue;
+            }
+            generate((TypeElement)e);
+        }
+        return true;
+    }
+
+    void error(Element e, String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+
+    String packageOf(TypeElement type)
+    {
+        return processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    }
+
+    // The simple name of the class generated for type. Nested classes are joined with '_'.
+    String generatedName(TypeElement type)
+    {
+        String pkg = packageOf(type);
+        String name = type.getQualifiedName().toString();
+        if(!pkg.isEmpty())
+            name = name.substring(pkg.length() + 1);
+        return name.replace('.', '_') + "Json";
+    }
+
+    String qualifiedGeneratedName(TypeElement type)
+    {
+        String pkg = packageOf(type);
+        return pkg.isEmpty() ? generatedName(type) : pkg + "." + generatedName(type);
+    }
+
+    void generate(TypeElement type)
+    {
+        if(type.getModifiers().contains(Modifier.ABSTRACT))
+        {
+            error(type, "A @JsonSerializable class must not be abstract");
+            return;
+        }
+        if(type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+        {
+            error(type, "A nested @JsonSerializable class must be static");
+            return;
+        }
+        boolean constructor = false;
+        for(ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements()))
+        {
+            if(c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+                constructor = true;
+        }
+        if(!constructor)
+        {
+            error(type, "A @JsonSerializable class needs a constructor with no parameters that is not private");
+            return;
+        }
+        ArrayList<VariableElement> fields = new ArrayList<VariableElement>();
+        for(VariableElement f : ElementFilter.fieldsIn(type.getEnclosedElements()))
+        {
+            Set<Modifier> mods = f.getModifiers();
+            if(mods.contains(Modifier.STATIC) || mods.contains(Modifier.TRANSIENT))
+                continue;
+            if(mods.contains(Modifier.PRIVATE) || mods.contains(Modifier.FINAL))
+            {
+                error(f, "A field of a @JsonSerializable class must not be private or final");
+                return;
+            }
+            fields.add(f);
+        }
+
+        String typeName = type.getQualifiedName().toString();
+        String pkg = packageOf(type);
+        String name = generatedName(type);
+        Code code = new Code();
+        code.line("// Generated by com.noaoh.ezJSON.JsonProcessor from " + typeName + ". Do not edit.");
+        if(!pkg.isEmpty())
+            code.line("package " + pkg + ";");
+        code.line("");
+        code.line("import com.noaoh.ezJSON.Json;");
+        code.line("");
+        code.line("public final class " + name);
+        code.open();
+        code.line("private " + name + "()").open().close();
+        code.line("");
+        for(String input : new String[] { "String", "byte[]" })
+        {
+            code.line("public static " + typeName + " parse(" + input + " input)").open();
+            code.line("Json.Reader r = Json.reader(input);");
+            code.line("r.nextToken();");
+            code.line("return read(r);");
+            code.close();
+            code.line("");
+        }
+        code.line("public static String toJson(" + typeName + " value)").open();
+        code.line("java.io.StringWriter out = new java.io.StringWriter();");
+        code.line("Json.JsonWriter w = Json.writer(out);");
+        code.line("write(w, value);");
+        code.line("w.flush();");
+        code.line("return out.toString();");
+        code.close();
+        code.line("");
+        try
+        {
+            generateRead(code, type, typeName, fields);
+            code.line("");
+            generateWrite(code, typeName, fields);
+        }
+        catch(Unsupported e)
+        {
+            return;
+        }
+        code.close();
+
+        try
+        {
+            String file = pkg.isEmpty() ? name : pkg + "." + name;
+            Writer out = processingEnv.getFiler().createSourceFile(file, type).openWriter();
+            out.write(code.sb.toString());
+            out.close();
+        }
+        catch(IOException e)
+        {
+            error(type, "Could not write " + name + ": " + e.getMessage());
+        }
+    }
+
+    void generateRead(Code code, TypeElement type, String typeName, List<VariableElement> fields)
+    {
+        // Group the fields by the hash codes of their names, in case two of them collide
+        LinkedHashMap<Integer, List<VariableElement>> byHash = new LinkedHashMap<Integer, List<VariableElement>>();
+        for(VariableElement f : fields)
+        {
+            int hash = f.getSimpleName().toString().hashCode();
+            if(!byHash.containsKey(hash))
+                byHash.put(hash, new ArrayList<VariableElement>());
+            byHash.get(hash).add(f);
+        }
+
+        code.line("// Reads the value that starts at the current token. Afterwards, the current token is its end.");
+        code.line("public static " + typeName + " read(Json.Reader r)").open();
+        code.line("if(r.currentToken() == " + TOKEN + "NULL)");
+        code.line("    return null;");
+        code.line("if(r.currentToken() != " + TOKEN + "START_OBJECT)");
+        code.line("    throw new RuntimeException(\"Expected an object for " + typeName + ", got \" + r.currentToken());");
+        code.line(typeName + " value = new " + typeName + "();");
+        code.line("while(r.nextToken() == " + TOKEN + "NAME)").open();
+        code.line("String name = r.getString();");
+        code.line("r.nextToken();");
+        code.line("switch(name.hashCode())").open();
+        for(Map.Entry<Integer, List<VariableElement>> entry : byHash.entrySet())
+        {
+            code.line("case " + entry.getKey() + ":");
+            code.indent++;
+            for(VariableElement f : entry.getValue())
+            {
+                String field = f.getSimpleName().toString();
+                code.line("if(name.equals(\"" + field + "\"))").open();
+                try
+                {
+                    readValue(code, f.asType(), "value." + field + " = %s;", field, 0);
+                }
+                catch(Unsupported e)
+                {
+                    error(f, e.getMessage());
+                    throw e;
+                }
+                code.line("continue;");
+                code.close();
+            }
+            code.line("break;");
+            code.indent--;
+        }
+        code.close();
+        code.line("r.skipChildren();");
+        code.close();
+        code.line("return value;");
+        code.close();
+    }
+
+    void generateWrite(Code code, String typeName, List<VariableElement> fields)
+    {
+        code.line("public static void write(Json.JsonWriter w, " + typeName + " value)").open();
+        code.line("if(value == null)").open();
+        code.line("w.nullValue();");
+        code.line("return;");
+        code.close();
+        code.line("w.startObject();");
+        for(VariableElement f : fields)
+        {
+            String field = f.getSimpleName().toString();
+            code.line("w.name(\"" + field + "\");");
+            writeValue(code, f.asType(), "value." + field, 0);
+        }
+        code.line("w.endObject();");
+        code.close();
+    }
+
+    String erasedName(TypeMirror t)
+    {
+        return processingEnv.getTypeUtils().erasure(t).toString();
+    }
+
+    TypeElement serializable(TypeMirror t)
+    {
+        if(t.getKind() != TypeKind.DECLARED)
+            return null;
+        TypeElement e = (TypeElement)((DeclaredType)t).asElement();
+        return e.getAnnotation(JsonSerializable.class) != null ? e : null;
+    }
+
+    boolean isEnum(TypeMirror t)
+    {
+        return t.getKind() == TypeKind.DECLARED && ((DeclaredType)t).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    boolean isList(TypeMirror t)
+    {
+        String n = erasedName(t);
+        return t.getKind() == TypeKind.DECLARED && (n.equals("java.util.List") || n.equals("java.util.ArrayList"));
+    }
+
+    TypeMirror itemType(TypeMirror t)
+    {
+        List<? extends TypeMirror> args = ((DeclaredType)t).getTypeArguments();
+        if(args.size() != 1 || args.get(0).getKind() != TypeKind.DECLARED && args.get(0).getKind() != TypeKind.ARRAY)
+            throw new Unsupported("A list needs a type argument such as List<String>, not " + t);
+        return args.get(0);
+    }
+
+    // The expression that reads a primitive from the current token
+    String readPrimitive(TypeKind kind)
+    {
+        switch(kind)
+        {
+            case BOOLEAN: return "r.getBool()";
+            case BYTE: return "r.getByte()";
+            case SHORT: return "r.getShort()";
+            case INT: return "r.getInt()";
+            case LONG: return "r.getLong()";
+            case FLOAT: return "(float)r.getDouble()";
+            case DOUBLE: return "r.getDouble()";
+            default: return null;
+        }
+    }
+
+    // The expression that reads a boxed primitive, or null, from the current token
+    String readBoxed(String name)
+    {
+        switch(name)
+        {
+            case "java.lang.Boolean": return "Boolean.valueOf(r.getBool())";
+            case "java.lang.Byte": return "Byte.valueOf(r.getByte())";
+            case "java.lang.Short": return "Short.valueOf(r.getShort())";
+            case "java.lang.Integer": return "Integer.valueOf(r.getInt())";
+            case "java.lang.Long": return "Long.valueOf(r.getLong())";
+            case "java.lang.Float": return "Float.valueOf((float)r.getDouble())";
+            case "java.lang.Double": return "Double.valueOf(r.getDouble())";
+            default: return null;
+        }
+    }
+
+    // The expression that turns a boxed primitive, which is not null, into a value for JsonWriter
+    String unbox(String name, String expr)
+    {
+        switch(name)
+        {
+            case "java.lang.Boolean": return expr + ".booleanValue()";
+            case "java.lang.Byte":
+            case "java.lang.Short":
+            case "java.lang.Integer":
+            case "java.lang.Long": return expr + ".longValue()";
+            case "java.lang.Float":
+            case "java.lang.Double": return expr + ".doubleValue()";
+            default: return null;
+        }
+    }
+
+    // Appends code that reads the value at the current token, and passes it to assign,
+    // a format with one %s. Afterwards, the current token is the end of the value.
+    void readValue(Code code, TypeMirror t, String assign, String what, int depth)
+    {
+        String nullOr = "r.currentToken() == " + TOKEN + "NULL ? null : ";
+        if(t.getKind().isPrimitive())
+        {
+            String expr = readPrimitive(t.getKind());
+            if(expr == null)
+                throw new Unsupported("Fields of type " + t + " are not supported");
+            code.line(String.format(assign, expr));
+            return;
+        }
+        if(t.getKind() == TypeKind.ARRAY)
+        {
+            TypeMirror item = ((ArrayType)t).getComponentType();
+            if(item.getKind() == TypeKind.DECLARED && !((DeclaredType)item).getTypeArguments().isEmpty())
+                throw new Unsupported("Arrays of generic types are not supported");
+            String itemName = item.toString();
+            int dims = itemName.indexOf('[');
+            String create = dims < 0 ? itemName + "[16]" : itemName.substring(0, dims) + "[16]" + itemName.substring(dims);
+            String arr = "arr" + depth;
+            String n = "n" + depth;
+            readListStart(code, assign, what);
+            code.line(t + " " + arr + " = new " + create + ";");
+            code.line("int " + n + " = 0;");
+            code.line("while(r.nextToken() != " + TOKEN + "END_LIST)").open();
+            code.line("if(" + n + " == " + arr + ".length)");
+            code.line("    " + arr + " = java.util.Arrays.copyOf(" + arr + ", " + n + " * 2);");
+            readValue(code, item, arr + "[" + n + "++] = %s;", what, depth + 1);
+            code.close();
+            code.line(String.format(assign, "java.util.Arrays.copyOf(" + arr + ", " + n + ")"));
+            code.close();
+            return;
+        }
+        if(t.getKind() != TypeKind.DECLARED)
+            throw new Unsupported("Fields of type " + t + " are not supported");
+        String name = erasedName(t);
+        TypeElement nested = serializable(t);
+        if(name.equals("java.lang.String"))
+            code.line(String.format(assign, nullOr + "r.getString()"));
+        else if(readBoxed(name) != null)
+            code.line(String.format(assign, nullOr + readBoxed(name)));
+        else if(name.equals("com.noaoh.ezJSON.Json"))
+            code.line(String.format(assign, "r.readNode()"));
+        else if(isEnum(t))
+            code.line(String.format(assign, nullOr + name + ".valueOf(r.getString())"));
+        else if(nested != null)
+            code.line(String.format(assign, qualifiedGeneratedName(nested) + ".read(r)"));
+        else if(isList(t))
+        {
+            TypeMirror item = itemType(t);
+            String list = "list" + depth;
+            readListStart(code, assign, what);
+            code.line("java.util.ArrayList<" + item + "> " + list + " = new java.util.ArrayList<" + item + ">();");
+            code.line("while(r.nextToken() != " + TOKEN + "END_LIST)").open();
+            readValue(code, item, list + ".add(%s);", what, depth + 1);
+            code.close();
+            code.line(String.format(assign, list));
+            code.close();
+        }
+        else
+            throw new Unsupported("Fields of type " + t + " are not supported. Mark the class with @JsonSerializable.");
+    }
+
+    // Handles null and checks for the start of a list, then opens the block that reads it
+    void readListStart(Code code, String assign, String what)
+    {
+        code.line("if(r.currentToken() == " + TOKEN + "NULL)");
+        code.line("    " + String.format(assign, "null"));
+        code.line("else").open();
+        code.line("if(r.currentToken() != " + TOKEN + "START_LIST)");
+        code.line("    throw new RuntimeException(\"Expected a list for " + what + ", got \" + r.currentToken());");
+    }
+
+    // Appends code that writes the value of expr
+    void writeValue(Code code, TypeMirror t, String expr, int depth)
+    {
+        if(t.getKind().isPrimitive())
+        {
+            code.line("w.value(" + expr + ");");
+            return;
+        }
+        if(t.getKind() == TypeKind.ARRAY)
+        {
+            String arr = "arr" + depth;
+            String i = "i" + depth;
+            code.line("if(" + expr + " == null)");
+            code.line("    w.nullValue();");
+            code.line("else").open();
+            code.line(t + " " + arr + " = " + expr + ";");
+            code.line("w.startList();");
+            code.line("for(int " + i + " = 0; " + i + " < " + arr + ".length; " + i + "++)").open();
+            writeValue(code, ((ArrayType)t).getComponentType(), arr + "[" + i + "]", depth + 1);
+            code.close();
+            code.line("w.endList();");
+            code.close();
+            return;
+        }
+        String name = erasedName(t);
+        TypeElement nested = serializable(t);
+        if(name.equals("java.lang.String") || name.equals("com.noaoh.ezJSON.Json"))
+            code.line("w.value(" + expr + ");");
+        else if(unbox(name, expr) != null)
+        {
+            code.line("if(" + expr + " == null)");
+            code.line("    w.nullValue();");
+            code.line("else");
+            code.line("    w.value(" + unbox(name, expr) + ");");
+        }
+        else if(isEnum(t))
+            code.line("w.value(" + expr + " == null ? null : " + expr + ".name());");
+        else if(nested != null)
+            code.line(qualifiedGeneratedName(nested) + ".write(w, " + expr + ");");
+        else
+        {
+            TypeMirror item = itemType(t);
+            String list = "list" + depth;
+            String i = "i" + depth;
+            code.line("if(" + expr + " == null)");
+            code.line("    w.nullValue();");
+            code.line("else").open();
+            code.line("java.util.List<" + item + "> " + list + " = " + expr + ";");
+            code.line("w.startList();");
+            code.line("for(int " + i + " = 0; " + i + " < " + list + ".size(); " + i + "++)").open();
+            writeValue(code, item, list + ".get(" + i + ")", depth + 1);
+            code.close();
+            code.line("w.endList();");
+            code.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+// ----------------------------------------------------------------
+// The contents of this file are distributed under the CC0 license.
+// See http://creativecommons.org/publicdomain/zero/1.0/
+// ----------------------------------------------------------------
+
+package com.noaoh.ezJSON;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a class for JsonProcessor, which generates a class that reads and writes it
+// straight to and from JSON text, without building a DOM. For a class named Submarine
+// it generates SubmarineJson, in the same package, with these methods:
+//
+//     static Submarine parse(String s)
+//     static Submarine parse(byte[] b)
+//     static Submarine read(Json.Reader r)
+//     static String toJson(Submarine value)
+//     static void write(Json.JsonWriter w, Submarine value)
+//
+// Each field of the class that is not static or transient becomes a field of the
+// JSON object with the same name. Fields must not be private or final, and the class
+// needs a constructor with no parameters that is not private. A field may be a
+// primitive other than char, a boxed primitive, a String, an enum, a Json node, a
+// class marked with this annotation, or an array, List or ArrayList of those.
+// Unknown names are skipped when reading.
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JsonSerializable
+{
+}
@@ -4,7 +4,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -45,4 +49,124 @@ public class InvalidParseTests {
         }
         return dynamicTests;
     }
+
+    @Test
+    public void stringEscapeTest() {
+        String[] invalid = {"[\"a\u0000b\"]", "[\"\u001f\"]", "[\"\n\"]", "[\"\\x\"]",
+            "[\"\\u12\"]", "[\"\\u12g4\"]", "[\"\\\"]", "[\"\\u00e9"};
+        for (String text : invalid) {
+            assertThrows(RuntimeException.class, () -> Json.parse(text), text);
+            assertThrows(RuntimeException.class, () -> Json.parse(text.getBytes(StandardCharsets.UTF_8)), text);
+        }
+    }
+
+    // Checks that parse throws exactly when Json.load throws, and otherwise gives the same result
+    static void assertSameOutcome(String path, Callable<Json> parse) throws Exception {
+        String expected;
+        try {
+            expected = Json.load(path).toString();
+        } catch (RuntimeException e) {
+            assertThrows(RuntimeException.class, parse::call);
+            return;
+        } catch (StackOverflowError e) {
+            assertThrows(Error.class, parse::call);
+            return;
+        }
+        assertEquals(expected, parse.call().toString());
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicMappedParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> assertSameOutcome(path, () -> Json.loadMapped(Paths.get(path), 17));
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicLazyParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> assertSameOutcome(path, () -> Json.parseLazy(Files.readAllBytes(Paths.get(path))));
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicIndexedParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> assertSameOutcome(path, () -> Json.parseIndexed(Files.readAllBytes(Paths.get(path))));
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicParallelParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> assertSameOutcome(path, () -> Json.parseParallel(Files.readAllBytes(Paths.get(path)), null, 0, 1));
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    // The tokens of the first value in bytes, ending with "error" if reading it throws
+    static List<String> firstValueTokens(byte[] bytes, boolean push) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        try {
+            if (push) {
+                Json.PushParser p = new Json.PushParser();
+                p.feed(bytes, 0, bytes.length);
+                p.endOfInput();
+                Json.Reader.Token t;
+                while ((t = p.nextToken()) != null) {
+                    tokens.add(t.toString());
+                    if (p.depth() == 0)
+                        break;
+                }
+            } else {
+                Json.Reader r = Json.reader(bytes);
+                Json.Reader.Token t;
+                while ((t = r.nextToken()) != null)
+                    tokens.add(t.toString());
+            }
+        } catch (RuntimeException e) {
+            tokens.add("error");
+        }
+        return tokens;
+    }
+
+    // The push parser is as strict as Reader
+    @TestFactory
+    public Collection<DynamicTest> dynamicPushParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                byte[] bytes = Files.readAllBytes(Paths.get(path));
+                List<String> expected = firstValueTokens(bytes, false);
+                List<String> actual = firstValueTokens(bytes, true);
+                // The push parser reads no values from empty input, where Reader throws
+                assertEquals(expected.contains("error"), actual.isEmpty() || actual.contains("error"));
+                if (!expected.contains("error"))
+                    assertEquals(expected, actual);
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
 }
@@ -0,0 +1,144 @@
+package com.noaoh.ezJSON;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.jupiter.api.Test;
+
+// Compiles sample classes with JsonProcessor, then runs the classes it generated
+public class ProcessorTests {
+    static final String SUBMARINE = String.join("\n",
+        "package sample;",
+        "import com.noaoh.ezJSON.Json;",
+        "import com.noaoh.ezJSON.JsonSerializable;",
+        "import java.util.List;",
+        "@JsonSerializable",
+        "public class Submarine {",
+        "    public enum Kind { ATTACK, BALLISTIC }",
+        "    @JsonSerializable",
+        "    public static class Torpedo {",
+        "        public String name;",
+        "        public double yield;",
+        "    }",
+        "    public boolean atomic;",
+        "    public int crewSize;",
+        "    public double depth;",
+        "    public Long serial;",
+        "    public Integer missing;",
+        "    public String motto;",
+        "    public Kind kind;",
+        "    public Torpedo spare;",
+        "    public List<Torpedo> ammo;",
+        "    public long[] sonar;",
+        "    public List<List<String>> crew;",
+        "    public String[][] charts;",
+        "    public Json extra;",
+        "    transient int ignored;",
+        "}");
+
+    static final String DOCUMENT = "{\"atomic\":true,\"crewSize\":130,\"depth\":-250.5,\"serial\":9007199254740993,"
+        + "\"missing\":null,\"motto\":\"Run \\\"silent\\\"\\n\\u00e9\",\"kind\":\"ATTACK\",\"spare\":null,"
+        + "\"ammo\":[{\"name\":\"Mk 48\",\"yield\":292.5},{\"name\":\"Mk 54\",\"yield\":44.0}],"
+        + "\"sonar\":[1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18],\"crew\":[[\"a\",\"b\"],[],null],"
+        + "\"charts\":[[\"x\"],null],\"extra\":{\"any\":[1,{\"thing\":null}]}}";
+
+    static boolean compile(Path dir, String source, ByteArrayOutputStream errors) throws Exception {
+        Path file = dir.resolve("sample/Submarine.java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        String classes = Paths.get(Json.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(javac, "These tests need a JDK");
+        int status = javac.run(null, null, errors, "-encoding", "UTF-8", "-cp", classes, "-processorpath", classes,
+            "-processor", JsonProcessor.class.getName(), "-d", dir.toString(), "-s", dir.toString(), file.toString());
+        return status == 0;
+    }
+
+    static void delete(Path dir) throws Exception {
+        ArrayList<Path> paths = new ArrayList<Path>();
+        Files.walk(dir).forEach(paths::add);
+        for (int i = paths.size() - 1; i >= 0; i--)
+            Files.delete(paths.get(i));
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        Path dir = Files.createTempDirectory("processor");
+        try {
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            assertEquals(true, compile(dir, SUBMARINE, errors), errors.toString());
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, Json.class.getClassLoader())) {
+                Class<?> gen = loader.loadClass("sample.SubmarineJson");
+                Method parse = gen.getMethod("parse", String.class);
+                Method toJson = gen.getMethod("toJson", loader.loadClass("sample.Submarine"));
+                Object sub = parse.invoke(null, DOCUMENT);
+                String expected = Json.parse(DOCUMENT).toString();
+                assertEquals(expected, toJson.invoke(null, sub));
+
+                // Unknown names are skipped, and missing ones keep their defaults
+                sub = parse.invoke(null, "{\"unknown\":{\"a\":[1,2]},\"depth\":1,\"other\":[{}]}");
+                assertEquals("{\"atomic\":false,\"crewSize\":0,\"depth\":1.0,\"serial\":null,\"missing\":null,"
+                    + "\"motto\":null,\"kind\":null,\"spare\":null,\"ammo\":null,\"sonar\":null,\"crew\":null,"
+                    + "\"charts\":null,\"extra\":null}", toJson.invoke(null, sub));
+                assertEquals(expected, toJson.invoke(null, gen.getMethod("parse", byte[].class)
+                    .invoke(null, (Object)DOCUMENT.getBytes(StandardCharsets.UTF_8))));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void narrowingTest() throws Exception {
+        Path dir = Files.createTempDirectory("processor");
+        try {
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            String source = SUBMARINE.replace("    transient int ignored;", "    public byte level;\n    public Short band;");
+            assertEquals(true, compile(dir, source, errors), errors.toString());
+            try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, Json.class.getClassLoader())) {
+                Method parse = loader.loadClass("sample.SubmarineJson").getMethod("parse", String.class);
+                assertNotNull(parse.invoke(null, "{\"level\":-128,\"band\":32767,\"crewSize\":2147483647}"));
+                String[] overflows = {"{\"level\":128}", "{\"level\":-129}", "{\"band\":32768}", "{\"crewSize\":2147483648}"};
+                for (String text : overflows) {
+                    InvocationTargetException e = assertThrows(InvocationTargetException.class, () -> parse.invoke(null, text));
+                    assertNotEquals(-1, e.getCause().getMessage().indexOf("does not fit"), text);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void unsupportedFieldTest() throws Exception {
+        Path dir = Files.createTempDirectory("processor");
+        try {
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            String source = SUBMARINE.replace("    transient int ignored;", "    java.util.Map<String, String> notes;");
+            assertEquals(false, compile(dir, source, errors));
+            assertNotEquals(-1, errors.toString().indexOf("not supported"));
+            errors.reset();
+            source = SUBMARINE.replace("    transient int ignored;", "    private int hidden;");
+            assertEquals(false, compile(dir, source, errors));
+            assertNotEquals(-1, errors.toString().indexOf("must not be private"));
+        } finally {
+            delete(dir);
+        }
+    }
+}
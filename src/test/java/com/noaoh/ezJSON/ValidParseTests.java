@@ -1,11 +1,32 @@
 package com.noaoh.ezJSON;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -17,6 +38,7 @@ import org.junit.jupiter.api.function.Executable;
 
 public class ValidParseTests {
     static HashMap<String, String> testCases;
+    static Json.SymbolTable symbols = new Json.SymbolTable(8, 32);
 
     @BeforeAll
     static void initializeJSONFiles() {
@@ -49,4 +71,705 @@ public class ValidParseTests {
         }
         return dynamicTests;
     }
-}
\ No newline at end of file
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicByteParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                byte[] bytes = Files.readAllBytes(Paths.get(path));
+                String expected = Json.parse(new String(bytes, StandardCharsets.UTF_8)).toString();
+                assertEquals(expected, Json.parse(bytes).toString());
+                assertEquals(expected, Json.parse(bytes, symbols).toString());
+                assertEquals(expected, Json.parseLazy(bytes).toString());
+                assertEquals(expected, Json.parseIndexed(bytes).toString());
+                assertEquals(expected, Json.parseParallel(bytes, null, 0, 1).toString());
+                assertEquals(expected, Json.parseLazy(new String(bytes, StandardCharsets.UTF_8)).toString());
+                assertEquals(expected, Json.ByteParser.local().reset(bytes).parse().toString());
+                Json frozen = Json.parseFrozen(bytes);
+                assertEquals(expected, frozen.toString());
+                assertEquals(Json.parse(bytes), frozen);
+                assertEquals(Json.parse(bytes).hashCode(), frozen.hashCode());
+                assertEquals(frozen, Json.parseLazy(bytes).freeze());
+                assertEquals(expected, Json.StringParser.local().reset(new String(bytes, StandardCharsets.UTF_8)).parse().toString());
+                assertEquals(0, Json.ByteParser.local().remaining());
+                assertEquals(0, Json.StringParser.local().remaining());
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicMappedParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                String expected = Json.load(path).toString();
+                assertEquals(expected, Json.loadMapped(Paths.get(path)).toString());
+                assertEquals(expected, Json.loadMapped(Paths.get(path), 17).toString());
+                try (Json.Tape tape = Json.loadTape(Paths.get(path))) {
+                    assertEquals(expected, tape.root().toString());
+                }
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    static Json readTree(Json.Reader r) {
+        switch (r.currentToken()) {
+            case START_OBJECT:
+                Json ob = Json.newObject();
+                while (r.nextToken() == Json.Reader.Token.NAME) {
+                    String name = r.getString();
+                    r.nextToken();
+                    ob.add(name, readTree(r));
+                }
+                return ob;
+            case START_LIST:
+                Json list = Json.newList();
+                while (r.nextToken() != Json.Reader.Token.END_LIST)
+                    list.add(readTree(r));
+                return list;
+            default:
+                return r.readNode();
+        }
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicReaderTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                byte[] bytes = Files.readAllBytes(Paths.get(path));
+                String expected = Json.parse(bytes).toString();
+                ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+                Json.Reader r = new Json.Reader(new Json.StreamParser(in, 17), in);
+                r.nextToken();
+                assertEquals(expected, readTree(r).toString());
+                assertEquals(null, r.nextToken());
+                r = Json.reader(bytes);
+                r.nextToken();
+                r.skipChildren();
+                assertEquals(0, r.depth());
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicWriteTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                Json ob = Json.load(path);
+                String expected = ob.toString();
+                StringWriter sw = new StringWriter();
+                ob.write(sw);
+                assertEquals(expected, sw.toString());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ob.write(out);
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+                out.reset();
+                ob.write(Channels.newChannel(out));
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+                out.reset();
+                Json.JsonWriter w = new Json.Utf8Writer(out, null, 16);
+                w.value(ob);
+                w.flush();
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+                assertEquals(expected, Json.Serializer.local().toString(ob));
+                Json decoded = Json.parseBinary(ob.toBinary());
+                assertEquals(ob, decoded);
+                assertEquals(expected, decoded.toString());
+                assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), Json.Serializer.local().toBytes(ob));
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @TestFactory
+    public Collection<DynamicTest> dynamicPushParseTests() {
+        ArrayList<DynamicTest> dynamicTests = new ArrayList<DynamicTest>();
+        for (Map.Entry<String, String> testCase : testCases.entrySet()) {
+            String path = testCase.getKey();
+            String testName = testCase.getValue();
+            Executable x = () -> {
+                byte[] bytes = Files.readAllBytes(Paths.get(path));
+                String expected = Json.parse(bytes).toString();
+                for (int chunk : new int[] {1, 7, bytes.length + 1}) {
+                    ArrayList<Json> values = new ArrayList<Json>();
+                    Json.PushParser p = new Json.PushParser(values::add);
+                    for (int i = 0; i < bytes.length; i += chunk)
+                        p.feed(bytes, i, Math.min(chunk, bytes.length - i));
+                    p.endOfInput();
+                    assertEquals(1, values.size());
+                    assertEquals(expected, values.get(0).toString());
+                }
+                ArrayList<Json.Reader.Token> expectedTokens = new ArrayList<Json.Reader.Token>();
+                Json.Reader r = Json.reader(bytes);
+                for (Json.Reader.Token t = r.nextToken(); t != null; t = r.nextToken())
+                    expectedTokens.add(t);
+                ArrayList<Json.Reader.Token> tokens = new ArrayList<Json.Reader.Token>();
+                Json.PushParser p = new Json.PushParser();
+                for (int i = 0; i < bytes.length; i += 3) {
+                    p.feed(bytes, i, Math.min(3, bytes.length - i));
+                    for (Json.Reader.Token t = p.nextToken(); t != null; t = p.nextToken())
+                        tokens.add(t);
+                }
+                p.endOfInput();
+                for (Json.Reader.Token t = p.nextToken(); t != null; t = p.nextToken())
+                    tokens.add(t);
+                assertEquals(expectedTokens, tokens);
+            };
+            dynamicTests.add(DynamicTest.dynamicTest(testName, x));
+        }
+        return dynamicTests;
+    }
+
+    @Test
+    public void parseLinesTest() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (String path : new TreeSet<String>(testCases.keySet())) {
+            String text = Json.load(path).toString();
+            lines.append(text).append(expected.size() % 3 == 0 ? "\r\n\n" : "\n");
+            expected.add(text);
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        ArrayList<String> actual = new ArrayList<String>();
+        Json.parseLines(new Json.StreamLines(new ByteArrayInputStream(bytes), 64), x -> actual.add(x.toString()));
+        assertEquals(expected, actual);
+        Path file = Files.createTempFile("lines", ".json");
+        try {
+            Files.write(file, bytes);
+            actual.clear();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                Json.parseLines(new Json.FileLines(channel, 64), x -> actual.add(x.toString()));
+            }
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), Json.loadLines(file).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void fileCacheTest() throws Exception {
+        Path dir = Files.createTempDirectory("cache");
+        Path a = dir.resolve("a.json");
+        Path b = dir.resolve("b.json");
+        try {
+            Files.write(a, "{\"name\": \"a\", \"list\": [1, 2]}".getBytes(StandardCharsets.UTF_8));
+            Files.write(b, "[\"b\"]".getBytes(StandardCharsets.UTF_8));
+            Json.JsonFileCache cache = new Json.JsonFileCache(Files.size(a) + Files.size(b));
+            Json first = cache.load(a);
+            assertSame(first, cache.load(a.toString()));
+            assertEquals(1, cache.hits());
+            assertEquals(1, cache.misses());
+            assertThrows(RuntimeException.class, () -> first.add("x", 1));
+            assertThrows(RuntimeException.class, () -> first.get("list").add(3));
+
+            // A changed file is parsed again
+            Files.write(a, "{\"name\": \"a2\"}".getBytes(StandardCharsets.UTF_8));
+            assertEquals("\"a2\"", cache.load(a).get("name").toString());
+            assertEquals(2, cache.misses());
+            cache.load(b);
+            assertEquals(2, cache.size());
+            assertEquals(0, cache.evictions());
+
+            // Past the bound, the least recently used file goes
+            Files.write(b, "[\"b\", \"more than before\"]".getBytes(StandardCharsets.UTF_8));
+            cache.load(a);
+            cache.load(b);
+            assertEquals(1, cache.evictions());
+            assertEquals(1, cache.size());
+            assertEquals(Files.size(b), cache.bytes());
+
+            // Concurrent misses share one parse
+            cache.clear();
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try {
+                ArrayList<Future<Json>> loads = new ArrayList<Future<Json>>();
+                for (int i = 0; i < 32; i++)
+                    loads.add(pool.submit(() -> cache.load(a)));
+                for (Future<Json> f : loads)
+                    assertSame(loads.get(0).get(), f.get());
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void serializerFailureTest() {
+        Json doc = Json.parse("{\"a\": [1, 2.5, \"x\"]}");
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("closed");
+            }
+        };
+        Json.Serializer s = Json.Serializer.local();
+        assertThrows(RuntimeException.class, () -> s.write(doc, broken));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.write(doc, Channels.newChannel(out));
+        assertEquals(doc.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void lazyThreadsTest() throws Exception {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++)
+            sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"tags\":[[\"a\"],{\"b\":[").append(i).append("]}]}");
+        String text = sb.append("]").toString();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            // Each level must be built once, so every thread gets the same nodes
+            for (int round = 0; round < 50; round++) {
+                Json lazy = Json.parseLazy(text);
+                CountDownLatch ready = new CountDownLatch(8);
+                ArrayList<Future<Json>> reads = new ArrayList<Future<Json>>();
+                for (int i = 0; i < 8; i++) {
+                    reads.add(pool.submit(() -> {
+                        ready.countDown();
+                        ready.await();
+                        return lazy.get(1999).get("tags");
+                    }));
+                }
+                for (Future<Json> f : reads)
+                    assertSame(reads.get(0).get(), f.get());
+                assertEquals(text, lazy.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void freezeTest() {
+        Json doc = Json.parse("{\"a\": [1, 2], \"b\": {\"c\": \"d\"}, \"e\": [0.5, \"x\", null]}");
+        assertEquals(false, doc.isFrozen());
+        Json frozen = doc.freeze();
+        assertEquals(true, frozen.isFrozen());
+        assertEquals(true, doc.get("b").isFrozen());
+        assertThrows(RuntimeException.class, () -> frozen.add("f", 1));
+        assertThrows(RuntimeException.class, () -> frozen.get("a").add(3));
+        assertThrows(RuntimeException.class, () -> frozen.get("a").add(new long[] {3}));
+        assertThrows(RuntimeException.class, () -> frozen.get("b").add("g", true));
+        assertSame(frozen.toString(), frozen.toString());
+        assertEquals(doc, frozen);
+
+        // Equality depends on the kind of number and the order of fields
+        Json built = Json.newList();
+        built.add(new long[] {1, 2});
+        assertEquals(Json.parse("[1, 2]"), built);
+        assertEquals(Json.parse("[1, 2]").hashCode(), built.hashCode());
+        assertEquals(false, Json.parse("[1]").equals(Json.parse("[1.0]")));
+        assertEquals(false, Json.parse("{\"a\": 1, \"b\": 2}").equals(Json.parse("{\"b\": 2, \"a\": 1}")));
+    }
+
+    @Test
+    public void persistentUpdateTest() {
+        Json v1 = Json.parse("{\"a\": {\"b\": [1, 2, 3], \"c\": [\"x\"]}, \"d\": {\"e\": true}}").freeze();
+        String before = v1.toString();
+        Json v2 = v1.with("a.b[1]", 20);
+        assertEquals(before, v1.toString());
+        assertEquals("{\"a\":{\"b\":[1,20,3],\"c\":[\"x\"]},\"d\":{\"e\":true}}", v2.toString());
+        assertSame(v1.get("d"), v2.get("d"));
+        assertSame(v1.get("a").get("c"), v2.get("a").get("c"));
+        assertEquals(true, v2.isFrozen());
+
+        // A tree that is not frozen, and a value added from it, are copied and stay editable
+        Json open = Json.parse("{\"a\": [1, 2], \"b\": {\"c\": [0.5]}}");
+        Json added = Json.newList();
+        Json edited = open.with("a[2]", 3).with("b.d", added);
+        assertEquals(false, open.isFrozen());
+        assertEquals(false, added.isFrozen());
+        open.get("a").add(4);
+        open.get("b").get("c").add(1.5);
+        added.add("x");
+        assertEquals("{\"a\":[1,2,4],\"b\":{\"c\":[0.5,1.5]}}", open.toString());
+        assertEquals("{\"a\":[1,2,3],\"b\":{\"c\":[0.5],\"d\":[]}}", edited.toString());
+        assertThrows(RuntimeException.class, () -> edited.get("b").get("c").add(2.5));
+
+        Json v3 = v2.with("a.c[1]", "y").with("d.f", Json.parse("[]")).without("a.b[0]");
+        assertEquals("{\"a\":{\"b\":[20,3],\"c\":[\"x\",\"y\"]},\"d\":{\"e\":true,\"f\":[]}}", v3.toString());
+        assertEquals("{\"a\":{\"b\":[1,20,3],\"c\":[\"x\"]}}", v2.without("d").toString());
+        assertEquals(v2, v2.without("missing.path"));
+        assertEquals("[\"x\",2]", Json.parse("[1, 2]").with("[0]", "x").toString());
+        Json longs = Json.parse("[1, 2, 3]").freeze();
+        assertArrayEquals(new long[] {1, 5, 3}, longs.with("[1]", 5).asLongArray());
+        assertEquals("[1,2,3,4]", longs.with("[3]", 4).toString());
+        assertEquals("[1,3]", longs.without("[1]").toString());
+        assertEquals("[]", Json.parse("[1]").without("[0]").toString());
+        assertEquals("[1,2.5,3]", longs.with("[1]", 2.5).toString());
+        assertEquals("[1,2,3]", longs.toString());
+        Json doubles = Json.parse("[0.5, 1.5]").freeze();
+        assertArrayEquals(new double[] {0.5, 2.5}, doubles.with("[1]", 2.5).asDoubleArray());
+        assertEquals("[0.5,1.5,3.5]", doubles.with("[2]", 3.5).toString());
+        assertEquals("[1.5]", doubles.without("[0]").toString());
+        assertEquals("[\"x\",1.5]", doubles.with("[0]", "x").toString());
+        assertEquals(Json.parse("[0.5, 2.5]"), doubles.with("[1]", 2.5));
+        assertThrows(RuntimeException.class, () -> v3.add("g", 1));
+        assertThrows(RuntimeException.class, () -> v1.with("a.missing.b", 1));
+        assertThrows(RuntimeException.class, () -> v1.with("a.b[5]", 1));
+        assertThrows(RuntimeException.class, () -> v1.with("a[0]", 1));
+        assertThrows(RuntimeException.class, () -> v1.with("a.*", 1));
+    }
+
+    @Test
+    public void binaryStreamTest() throws Exception {
+        ArrayList<Json> expected = new ArrayList<Json>();
+        for (String path : new TreeSet<String>(testCases.keySet()))
+            expected.add(Json.load(path));
+        Json odd = Json.newList();
+        odd.add(-0.0);
+        odd.add(Double.NaN);
+        odd.add(Long.MIN_VALUE);
+        odd.add("\ud800 \udc00\ud83d\ude00 \u00e9");
+        Json empty = Json.newList();
+        empty.add(new double[0]);
+        odd.add(empty);
+        expected.add(odd);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Json.BinaryWriter w = new Json.BinaryWriter(out);
+        for (Json node : expected)
+            w.write(node);
+        w.flush();
+        ArrayList<Json> actual = new ArrayList<Json>();
+        Json.BinaryReader r = new Json.BinaryReader(new ByteArrayInputStream(out.toByteArray()), new byte[16], 0, 0);
+        for (Json node = r.read(); node != null; node = r.read())
+            actual.add(node);
+        assertEquals(expected, actual);
+        assertEquals("\ud800 \udc00\ud83d\ude00 \u00e9", actual.get(actual.size() - 1).getString(3));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(actual.get(actual.size() - 1).getDouble(0)));
+
+        Path file = Files.createTempFile("binary", ".ezj");
+        try {
+            odd.saveBinary(file.toString());
+            assertEquals(odd, Json.loadBinary(file.toString()));
+        } finally {
+            Files.delete(file);
+        }
+        assertThrows(RuntimeException.class, () -> Json.parseBinary("[1]".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void tapeTest() {
+        StringBuilder wide = new StringBuilder("{");
+        for (int i = 0; i < 100; i++)
+            wide.append("\"f").append(i).append("\": ").append(i).append(", ");
+        wide.append("\"f7\": \"duplicate\", \"caf\u00e9\": [1.5, -2, true, null, \"\ud83d\ude00\"]}");
+        String text = wide.toString();
+        Json.Tape tape = Json.parseTape(text.getBytes(StandardCharsets.UTF_8));
+        Json root = tape.root();
+        assertEquals(Json.parse(text).toString(), root.toString());
+        assertEquals(102, root.size());
+        assertEquals(7, root.getLong("f7"));
+        assertEquals(99, root.getLong("f99"));
+        Json list = root.get("caf\u00e9");
+        assertEquals(5, list.size());
+        assertEquals(1.5, list.getDouble(0));
+        assertEquals(-2, list.getLong(1));
+        assertEquals(-2.0, list.getDouble(1));
+        assertEquals(true, list.getBool(2));
+        assertEquals("\ud83d\ude00", list.getString(4));
+        assertThrows(RuntimeException.class, () -> root.get("missing"));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(5));
+        assertThrows(RuntimeException.class, () -> list.getLong(0));
+        assertThrows(RuntimeException.class, () -> root.add("x", 1));
+        assertEquals(Json.parse("{\"a\": 1, \"a\": 2}").getLong("a"),
+            Json.parseTape("{\"a\": 1, \"a\": 2}".getBytes(StandardCharsets.UTF_8)).root().getLong("a"));
+        Json heap = Json.parse(text);
+        assertEquals(heap, root);
+        assertEquals(root, heap);
+        assertEquals(heap.hashCode(), root.hashCode());
+        assertEquals(heap.get("caf\u00e9"), list);
+        assertNotEquals(Json.parse("[1.5, -2, true, null, \"x\"]"), list);
+        Json twin = Json.parseTape(text.getBytes(StandardCharsets.UTF_8)).root();
+        assertEquals(twin, root);
+        assertEquals(twin.hashCode(), root.hashCode());
+        assertNotEquals(Json.parseTape("{\"f0\": 1}".getBytes(StandardCharsets.UTF_8)).root(), root);
+        assertEquals(heap.get("f7"), root.get("f7"));
+        assertEquals(root.get("caf\u00e9").get(4), heap.get("caf\u00e9").get(4));
+        assertNotEquals(heap.get("f8"), root);
+        HashMap<Json, String> keys = new HashMap<Json, String>();
+        keys.put(heap, "heap");
+        assertEquals("heap", keys.get(root));
+        Json packed = Json.newList();
+        packed.add(new long[] {1, 2, 3});
+        Json tapeList = Json.parseTape("[1, 2, 3]".getBytes(StandardCharsets.UTF_8)).root();
+        assertEquals(packed, tapeList);
+        assertEquals(tapeList, packed);
+        assertEquals(packed.hashCode(), tapeList.hashCode());
+        Json back = Json.parseBinary(root.toBinary());
+        assertEquals(heap, back);
+        assertEquals(heap.toString(), back.toString());
+        Json edited = root.with("f1", "one").without("f2");
+        assertEquals("one", edited.getString("f1"));
+        assertThrows(RuntimeException.class, () -> edited.get("f2"));
+        assertEquals(1, root.getLong("f1"));
+        assertEquals(Json.parse(text).with("f1", "one").without("f2"), edited);
+        Json nested = Json.parse("{}").freeze().with("list", list);
+        assertEquals("[1.5,-2,true,null,\"\ud83d\ude00\"]", Json.parseBinary(nested.toBinary()).get("list").toString());
+        ArrayList<Json.Operation> ops = new ArrayList<Json.Operation>();
+        Json.setListener(ops::add);
+        try {
+            heap.toString();
+            root.toString();
+        } finally {
+            Json.setListener(null);
+        }
+        assertEquals(ops.get(0).nodes(), ops.get(1).nodes());
+        assertEquals(ops.get(0).depth(), ops.get(1).depth());
+        tape.close();
+        assertThrows(RuntimeException.class, () -> root.get("f1"));
+    }
+
+    @Test
+    public void listenerTest() throws Exception {
+        ArrayList<Json.Operation> ops = new ArrayList<Json.Operation>();
+        Json.Metrics metrics = new Json.Metrics();
+        Json.setListener(op -> {
+            op.nodes();
+            ops.add(op);
+            metrics.report(op);
+        });
+        Path file = Files.createTempFile("listener", ".json");
+        try {
+            Json doc = Json.parse("{\"a\": [1, 2, {\"b\": null}], \"c\": \"d\"}");
+            String text = doc.toString();
+            doc.save(file.toString());
+            Json.load(file.toString());
+            assertThrows(RuntimeException.class, () -> Json.parse("[1, 2"));
+            assertThrows(RuntimeException.class, () -> Json.load(file.toString() + ".missing"));
+        } finally {
+            Json.setListener(null);
+            Files.delete(file);
+        }
+        assertEquals(6, ops.size());
+        assertEquals("parse", ops.get(0).kind());
+        assertEquals(7, ops.get(0).nodes());
+        assertEquals(3, ops.get(0).depth());
+        assertEquals("toString", ops.get(1).kind());
+        assertEquals(30, ops.get(1).size());
+        assertEquals("save", ops.get(2).kind());
+        assertEquals(30, ops.get(2).size());
+        assertEquals("load", ops.get(3).kind());
+        assertEquals(7, ops.get(3).nodes());
+        assertEquals(null, ops.get(3).error());
+        assertEquals(0, ops.get(4).nodes());
+        assertEquals(2, metrics.failures().size());
+        assertEquals(1, metrics.count("load"));
+        assertEquals(30, metrics.size("load"));
+        assertEquals(1, metrics.sizes("load")[5]);
+        assertEquals(0, metrics.count("unknown"));
+
+        // Without a listener, nothing is reported
+        Json.parse("[]");
+        assertEquals(6, ops.size());
+
+        // Each other way in or out reports once, under its own kind
+        ops.clear();
+        byte[] bytes = "[1, {\"b\": [2, 3]}]".getBytes(StandardCharsets.UTF_8);
+        Json list = Json.parse(bytes);
+        Json.setListener(ops::add);
+        Path json = Files.createTempFile("listener", ".json");
+        Path binary = Files.createTempFile("listener", ".ezj");
+        StringWriter out = new StringWriter();
+        try {
+            Files.write(json, bytes);
+            Json.parseIndexed(bytes);
+            Json.parseParallel(bytes, null, 0, 1);
+            Json.parseParallel(bytes);
+            Json.parseLazy(bytes);
+            Json.parseTape(bytes);
+            Json.loadTape(json);
+            Json.loadMapped(json);
+            Json.loadLines(json);
+            Json.parseLines(new ByteArrayInputStream(bytes));
+            Json.parseBinary(list.toBinary());
+            list.saveBinary(binary.toString());
+            Json.loadBinary(binary.toString());
+            Json.writer(out).value(list).close();
+            assertThrows(RuntimeException.class, () -> Json.loadTape(Paths.get(json + ".missing")));
+        } finally {
+            Json.setListener(null);
+            Files.delete(json);
+            Files.delete(binary);
+        }
+        List<String> kinds = new ArrayList<String>();
+        for (Json.Operation op : ops)
+            kinds.add(op.kind());
+        assertEquals(Arrays.asList("parseIndexed", "parseParallel", "parseParallel", "parseLazy", "parseTape",
+            "loadTape", "loadMapped", "loadLines", "parseLines", "toBinary", "parseBinary", "saveBinary",
+            "loadBinary", "writer", "loadTape"), kinds);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(bytes.length, ops.get(i).size(), ops.get(i).kind());
+            assertEquals(null, ops.get(i).error(), ops.get(i).kind());
+        }
+        for (int i = 0; i < 7; i++) {
+            // A lazy parse counts only the levels built so far
+            assertEquals(i == 3 ? 1 : 6, ops.get(i).nodes(), ops.get(i).kind());
+        }
+        assertEquals(json.toString(), ops.get(5).path());
+        assertEquals(ops.get(9).size(), ops.get(10).size());
+        assertEquals(ops.get(9).size(), ops.get(11).size());
+        assertEquals(6, ops.get(12).nodes());
+        assertEquals(out.toString().length(), ops.get(13).size());
+        assertEquals(0, ops.get(13).nodes());
+        assertNotEquals(null, ops.get(14).error());
+    }
+
+    // Checks that both parsers read number as Long.parseLong does if it is an integer
+    // that fits in a long, and otherwise as Double.parseDouble does, bit for bit
+    static void assertNumber(String number) {
+        Json expected = Json.newList();
+        try {
+            expected.add(Long.parseLong(number));
+        } catch (NumberFormatException e) {
+            expected.add(Double.parseDouble(number));
+        }
+        String list = "[" + number + "]";
+        assertEquals(expected.get(0), Json.parse(list).get(0), number);
+        assertEquals(expected.get(0), Json.parse(list.getBytes(StandardCharsets.UTF_8)).get(0), number);
+    }
+
+    @Test
+    public void numberTest() {
+        String[] numbers = {
+            "0", "-0", "-0.0", "1", "1.0", "1E2", "0.1e1", "0.1", "2.0E-3",
+            "9223372036854775807", "9223372036854775808", "-9223372036854775808", "-9223372036854775809",
+            "1234567890123456789", "12345678901234567890", "123456789012345678901234567890",
+            "9007199254740991", "9007199254740992", "9007199254740993", "9007199254740993.0", "9007199254740995e0",
+            "1e22", "1e23", "1e-400", "1e400", "-1e400", "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157e308",
+            "1e0000000000000000000001", "1e-99999999999999999999", "1e99999999999999999999",
+            "123456789012345678e-5", "0.000000000000000000000000000001234567890123456789"
+        };
+        for (String number : numbers)
+            assertNumber(number);
+        assertNotEquals(Json.parse("[1]").get(0), Json.parse("[1.0]").get(0));
+        assertEquals("[1,1.0,0]", Json.parse("[1, 1.0, -0]").toString());
+    }
+
+    // Returns the names of an object's fields, as they are passed to a writer
+    static List<String> names(Json ob) {
+        ArrayList<String> names = new ArrayList<String>();
+        ob.write(new Json.BuilderWriter(new StringBuilder()) {
+            @Override
+            public Json.JsonWriter name(String name) {
+                names.add(name);
+                return super.name(name);
+            }
+        });
+        return names;
+    }
+
+    @Test
+    public void symbolTableTest() {
+        Json.SymbolTable table = new Json.SymbolTable(256, 8);
+        String text = "{\"id\": \"short\", \"description\": \"a much longer value\", \"k\\u0031\": \"v\\u0031\"}";
+        Json[] docs = {
+            Json.parse(text, table),
+            Json.parse(text.getBytes(StandardCharsets.UTF_8), table),
+            Json.parse(text, table)
+        };
+        for (int i = 1; i < docs.length; i++) {
+            List<String> first = names(docs[0]);
+            List<String> next = names(docs[i]);
+            assertEquals(first, next);
+            assertSame(first.get(0), next.get(0));
+            assertSame(first.get(2), next.get(2));
+            assertNotSame(first.get(1), next.get(1));
+            assertSame(docs[0].getString("id"), docs[i].getString("id"));
+            assertSame(docs[0].getString("k1"), docs[i].getString("k1"));
+            assertEquals(docs[0].getString("description"), docs[i].getString("description"));
+            assertNotSame(docs[0].getString("description"), docs[i].getString("description"));
+        }
+        Json alone = Json.parse(text);
+        assertNotSame(docs[0].getString("id"), alone.getString("id"));
+    }
+
+    // Decodes the one string in a list through both the String and the byte parser
+    static String decode(String list) {
+        String text = Json.parse(list).getString(0);
+        assertEquals(text, Json.parse(list.getBytes(StandardCharsets.UTF_8)).getString(0));
+        return text;
+    }
+
+    @Test
+    public void escapeTest() {
+        assertEquals("\u00e9", decode("[\"\\u00e9\"]"));
+        assertEquals("\u00e9", decode("[\"\\u00E9\"]"));
+        assertEquals("a\u0000b", decode("[\"a\\u0000b\"]"));
+        assertEquals("\"\\/\b\f\n\r\t", decode("[\"\\\"\\\\\\/\\b\\f\\n\\r\\t\"]"));
+        assertEquals("\ud83d\ude00", decode("[\"\\ud83d\\ude00\"]"));
+        assertEquals("\ud83d\ude00", decode("[\"\ud83d\ude00\"]"));
+        assertEquals("x\ud800y", decode("[\"x\\ud800y\"]"));
+        assertEquals("\udc00", decode("[\"\\udc00\"]"));
+        assertEquals("\ude00\ud83d", decode("[\"\\ude00\\ud83d\"]"));
+        assertEquals("[\"\\u0000\\u0001\\u001f\\b\\f\\n\\r\\t \\\"\\\\/\u007f\"]",
+            Json.parse("[\"\\u0000\\u0001\\u001f\\b\\f\\n\\r\\t \\\"\\\\/\u007f\"]").toString());
+        for (char c = 0; c < ' '; c++) {
+            Json list = Json.newList();
+            list.add(String.valueOf(c));
+            assertEquals(String.valueOf(c), Json.parse(list.toString()).getString(0));
+        }
+    }
+
+    @Test
+    public void packedListTest() {
+        Json longs = Json.parse("[1, -2, 9223372036854775807]");
+        assertArrayEquals(new long[] {1, -2, 9223372036854775807L}, longs.asLongArray());
+        assertArrayEquals(new double[] {1, -2, 9223372036854775807.0}, longs.asDoubleArray());
+        assertEquals(-2, longs.get(1).asLong());
+        Json doubles = Json.parse("[0.5, -2e3]");
+        assertArrayEquals(new double[] {0.5, -2e3}, doubles.asDoubleArray());
+        assertEquals(0.5, doubles.getDouble(0));
+        assertEquals("[1,2.5,\"x\"]", Json.parse("[1, 2.5, \"x\"]").toString());
+        doubles.add("x");
+        assertEquals("[0.5,-2000.0,\"x\"]", doubles.toString());
+        Json built = Json.newList();
+        built.add(new double[] {1.5, 2.5});
+        built.add(3.5);
+        built.add(new double[] {4.5});
+        assertEquals(4, built.size());
+        assertArrayEquals(new double[] {1.5, 2.5, 3.5, 4.5}, built.asDoubleArray());
+        built.add(new long[] {6});
+        assertEquals("[1.5,2.5,3.5,4.5,6]", built.toString());
+    }
+
+    @Test
+    public void extractPathTest() {
+        String doc = "{\"meta\": {\"requestId\": \"r-1\", \"tags\": [\"x\", \"]}\"]}, \"a.b\": 5, \"caf\\u00e9\": 6,"
+            + " \"items\": [{\"price\": 1.5}, {\"name\": \"none\"}, {\"price\": 3}], \"meta\": null}";
+        assertEquals("\"r-1\"", Json.compilePath("meta.requestId").extract(doc).toString());
+        assertEquals("\"r-1\"", Json.compilePath("$.meta.requestId").extract(doc.getBytes(StandardCharsets.UTF_8)).toString());
+        assertEquals("[1.5, 3]", Json.compilePath("items[*].price").extractAll(doc).toString());
+        assertEquals("[\"x\", \"]}\"]", Json.compilePath("$.meta.tags[*]").extractAll(doc).toString());
+        assertEquals("\"]}\"", Json.compilePath("meta.tags[1]").extract(doc).toString());
+        assertEquals("5", Json.compilePath("$['a.b']").extract(doc).toString());
+        assertEquals("6", Json.compilePath("['caf\u00e9']").extract(doc).toString());
+        assertEquals("6", Json.compilePath("['caf\u00e9']").extract(doc.getBytes(StandardCharsets.UTF_8)).toString());
+        assertEquals(null, Json.compilePath("items[3].price").extract(doc));
+        assertEquals(null, Json.compilePath("meta.requestId.x").extract(doc));
+        assertEquals(1, Json.compilePath("*.requestId").extractAll(doc).size());
+        assertEquals(Json.parse(doc).toString(), Json.compilePath("$").extract(doc).toString());
+    }
+}